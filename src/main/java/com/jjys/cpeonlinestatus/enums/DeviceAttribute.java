@@ -0,0 +1,38 @@
+package com.jjys.cpeonlinestatus.enums;
+
+import com.jjys.cpeonlinestatus.bean.DeviceInfo;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.function.Function;
+
+/**
+ * 设备属性索引的维度
+ *
+ */
+@Getter
+@AllArgsConstructor
+public enum DeviceAttribute {
+    /**
+     * 厂商
+     */
+    COMPANY("company", "厂商", DeviceInfo::getCompanyId),
+    /**
+     * 代理商
+     */
+    AGENT("agent", "代理商", DeviceInfo::getAgentId),
+    /**
+     * 模型
+     */
+    MODEL("model", "模型", DeviceInfo::getModelId),
+    /**
+     * 软件版本
+     */
+    SOFTWARE_VERSION("software_version", "软件版本", DeviceInfo::getSoftwareVersion);
+
+
+    private final String code;
+    private final String info;
+    private final Function<DeviceInfo, Object> getter;
+
+}
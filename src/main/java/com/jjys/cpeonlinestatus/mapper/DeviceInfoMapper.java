@@ -3,7 +3,9 @@ package com.jjys.cpeonlinestatus.mapper;
 import com.jjys.cpeonlinestatus.bean.DeviceInfo;
 import com.jjys.cpeonlinestatus.bean.bo.DeviceInfoBo;
 import com.jjys.cpeonlinestatus.bean.vo.DeviceInfoVo;
+import org.apache.ibatis.annotations.Param;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -22,4 +24,21 @@ public interface DeviceInfoMapper extends BaseMapperPlus<DeviceInfo, DeviceInfoV
      */
     List<DeviceInfo> queryDeviceStatusList(DeviceInfoBo bo);
 
+    /**
+     * 查询全部设备(id+sn)列表
+     */
+    List<DeviceInfo> queryDeviceSnList();
+
+    /**
+     * 查询全部设备(id+厂商+代理商+模型+软件版本)列表
+     */
+    List<DeviceInfo> queryDeviceAttributeList();
+
+    /**
+     * 以修改时间为条件，查询已删除设备(id+sn)列表
+     *
+     * @param updateTime 修改时间，为空时查询全部已删除设备
+     */
+    List<DeviceInfo> queryDeletedDeviceList(@Param("updateTime") Date updateTime);
+
 }
@@ -4,9 +4,13 @@ import com.jjys.cpeonlinestatus.utils.SpringUtils;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 import org.redisson.api.*;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.StringCodec;
 
 import java.time.Duration;
+import java.time.Instant;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -200,6 +204,17 @@ public class RedisUtils {
         return rBucket.get();
     }
 
+    /**
+     * 异步获得缓存的基本对象。
+     *
+     * @param key 缓存键值
+     * @return 缓存键值对应的数据
+     */
+    public static <T> RFuture<T> getCacheObjectAsync(final String key) {
+        RBucket<T> rBucket = CLIENT.getBucket(key);
+        return rBucket.getAsync();
+    }
+
     /**
      * 获得key剩余存活时间
      *
@@ -233,6 +248,16 @@ public class RedisUtils {
         batch.execute();
     }
 
+    /**
+     * 以 UNLINK 删除多个对象，大对象的内存在Redis后台线程中释放，不阻塞主线程
+     *
+     * @param keys Redis键集合
+     * @return 删除的键数量
+     */
+    public static long unlinkObject(final Collection<String> keys) {
+        return CLIENT.getKeys().unlink(keys.toArray(new String[0]));
+    }
+
     /**
      * 检查缓存对象是否存在
      *
@@ -484,6 +509,17 @@ public class RedisUtils {
         return atomic.get();
     }
 
+    /**
+     * 异步获取原子值
+     *
+     * @param key Redis键
+     * @return 当前值
+     */
+    public static RFuture<Long> getAtomicValueAsync(String key) {
+        RAtomicLong atomic = CLIENT.getAtomicLong(key);
+        return atomic.getAsync();
+    }
+
     /**
      * 递增原子值
      *
@@ -506,6 +542,21 @@ public class RedisUtils {
         return atomic.decrementAndGet();
     }
 
+    /**
+     * 原子值只增不减：新值大于当前值(或不存在)时设置为新值
+     *
+     * @param key   Redis键
+     * @param value 新值
+     * @return 设置后的当前值
+     */
+    public static long maxAtomicValue(String key, long value) {
+        Long result = evalScript("local c = tonumber(redis.call('get', KEYS[1])) " +
+                        "if c == nil or tonumber(ARGV[1]) > c then redis.call('set', KEYS[1], ARGV[1]) return tonumber(ARGV[1]) end " +
+                        "return c",
+                RScript.ReturnType.INTEGER, Collections.singletonList(key), value);
+        return result;
+    }
+
     /**
      * 缓存Bitmap中offset偏移量的数据
      *
@@ -519,6 +570,136 @@ public class RedisUtils {
         rBitSet.expire(ttl, TimeUnit.SECONDS);
     }
 
+    /**
+     * 批量缓存多个Bitmap中多个offset偏移量的数据，不修改过期时间
+     * <p>
+     * 用于过期时间已在创建Bitmap时统一设置的场景(参见 createCacheBitSets)，每个Bitmap只需一条 BITFIELD 命令
+     *
+     * @param keys    Redis键集合
+     * @param offsets 偏移量数组
+     * @param value   值
+     */
+    public static void setCacheBitSets(final Collection<String> keys, final long[] offsets, final boolean value) {
+        createBitSetsBatch(keys, offsets, value, 0).execute();
+    }
+
+    /**
+     * 批量缓存多个Bitmap中多个offset偏移量的数据，Bitmap没有过期时间时设置过期时间(已有的过期时间不修改)
+     * <p>
+     * 用于在客户端确定写入键的场景：写入恰好落在键被删除之后时，重新创建的键同样会过期，不会永久残留
+     *
+     * @param keys    Redis键集合
+     * @param offsets 偏移量数组
+     * @param value   值
+     * @param ttl     过期时间，单位：秒，不大于 0 时不设置
+     */
+    public static void setCacheBitSets(final Collection<String> keys, final long[] offsets, final boolean value, final long ttl) {
+        createBitSetsBatch(keys, offsets, value, ttl).execute();
+    }
+
+    /**
+     * 异步批量缓存多个Bitmap中多个offset偏移量的数据，Bitmap没有过期时间时设置过期时间，不阻塞调用线程
+     *
+     * @param keys    Redis键集合
+     * @param offsets 偏移量数组
+     * @param value   值
+     * @param ttl     过期时间，单位：秒，不大于 0 时不设置
+     */
+    public static RFuture<BatchResult<?>> setCacheBitSetsAsync(final Collection<String> keys, final long[] offsets,
+                                                               final boolean value, final long ttl) {
+        return createBitSetsBatch(keys, offsets, value, ttl).executeAsync();
+    }
+
+    private static RBatch createBitSetsBatch(final Collection<String> keys, final long[] offsets, final boolean value, final long ttl) {
+        RBatch batch = CLIENT.createBatch();
+        RScriptAsync rScript = batch.getScript(StringCodec.INSTANCE);
+        for (String key : keys) {
+            batch.getBitSet(key).setAsync(offsets, value);
+            if (ttl > 0) {
+                //PTTL 为 -1(存在且没有过期时间)时才设置，兼容不支持 EXPIRE NX 的Redis版本
+                rScript.evalAsync(key, RScript.Mode.READ_WRITE,
+                        "if redis.call('pttl', KEYS[1]) == -1 then redis.call('expire', KEYS[1], ARGV[1]) end",
+                        RScript.ReturnType.VALUE, Collections.singletonList(key), ttl);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * 批量创建Bitmap(已存在则保留原有数据)并设置过期时间
+     * <p>
+     * 使用 BITFIELD INCRBY u1 0 0 创建键而不修改任何位，全部命令通过 RBatch 管道一次性提交
+     *
+     * @param keys Redis键集合
+     * @param ttl  过期时间，单位：秒
+     */
+    public static void createCacheBitSets(final Collection<String> keys, final long ttl) {
+        RBatch batch = CLIENT.createBatch();
+        for (String key : keys) {
+            RBitSetAsync rBitSet = batch.getBitSet(key);
+            rBitSet.incrementAndGetUnsignedAsync(1, 0, 0);
+            rBitSet.expireAsync(Duration.ofSeconds(ttl));
+        }
+        batch.execute();
+    }
+
+    /**
+     * 将多个Bitmap按位或合并到目标Bitmap中(BITOP OR dest dest sources...)，目标Bitmap原有的位保留
+     *
+     * @param destKey    目标Redis键
+     * @param sourceKeys 源Redis键集合，不存在的键视为全 0
+     */
+    public static void orCacheBitSets(final String destKey, final Collection<String> sourceKeys) {
+        CLIENT.getBitSet(destKey).or(sourceKeys.toArray(new String[0]));
+    }
+
+    /**
+     * 批量预分配Bitmap的长度(不设置过期时间)，已存在的位保持不变
+     * <p>
+     * 使用 BITFIELD INCRBY u1 (位数-1) 0 一次分配到目标长度，避免之后的 SETBIT 逐步扩容；已达到目标长度时不做修改
+     *
+     * @param keyBits Redis键 -> 目标位数
+     */
+    public static void presizeCacheBitSets(final Map<String, Long> keyBits) {
+        RBatch batch = CLIENT.createBatch();
+        keyBits.forEach((key, bits) -> batch.getBitSet(key).incrementAndGetUnsignedAsync(1, Math.max(bits - 1, 0), 0));
+        batch.execute();
+    }
+
+    /**
+     * 批量缓存多个Bitmap中多个offset偏移量的数据，并分别设置过期时间点
+     * <p>
+     * 每个Bitmap的多个偏移量合并为一条 BITFIELD SET u1 命令，全部命令通过 RBatch 管道一次性提交
+     *
+     * @param keyExpireAt Redis键 -> 过期时间戳(毫秒)
+     * @param offsets     偏移量数组
+     * @param value       值
+     */
+    public static void setCacheBitSetsExpireAt(final Map<String, Long> keyExpireAt, final long[] offsets, final boolean value) {
+        createBitSetsExpireAtBatch(keyExpireAt, offsets, value).execute();
+    }
+
+    /**
+     * 异步批量缓存多个Bitmap中多个offset偏移量的数据，并分别设置过期时间点，不阻塞调用线程
+     *
+     * @param keyExpireAt Redis键 -> 过期时间戳(毫秒)
+     * @param offsets     偏移量数组
+     * @param value       值
+     */
+    public static RFuture<BatchResult<?>> setCacheBitSetsExpireAtAsync(final Map<String, Long> keyExpireAt, final long[] offsets, final boolean value) {
+        return createBitSetsExpireAtBatch(keyExpireAt, offsets, value).executeAsync();
+    }
+
+    private static RBatch createBitSetsExpireAtBatch(final Map<String, Long> keyExpireAt, final long[] offsets, final boolean value) {
+        RBatch batch = CLIENT.createBatch();
+        keyExpireAt.forEach((key, expireAt) -> {
+            RBitSetAsync rBitSet = batch.getBitSet(key);
+            rBitSet.setAsync(offsets, value);
+            rBitSet.expireAsync(Instant.ofEpochMilli(expireAt));
+        });
+        return batch;
+    }
+
     /**
      * 获取Bitmap中offset偏移量中的数据
      *
@@ -531,6 +712,18 @@ public class RedisUtils {
         return rBitSet.get(offset);
     }
 
+    /**
+     * 异步获取Bitmap中offset偏移量中的数据
+     *
+     * @param key    Redis键
+     * @param offset 偏移量
+     * @return 当前值
+     */
+    public static RFuture<Boolean> getCacheBitSetAsync(final String key, final long offset) {
+        RBitSet rBitSet = CLIENT.getBitSet(key);
+        return rBitSet.getAsync(offset);
+    }
+
     /**
      * 清空Bitmap中所有数据
      *
@@ -552,6 +745,207 @@ public class RedisUtils {
         return rBitSet.cardinality();
     }
 
+    /**
+     * 批量设置Bitmap中多个定长无符号整数字段的值
+     * <p>
+     * 第 index 个字段的位偏移量为 index * bits，全部 BITFIELD SET 命令通过 RBatch 管道一次性提交
+     *
+     * @param key     Redis键
+     * @param bits    字段位数
+     * @param indexes 字段序号数组
+     * @param value   值
+     */
+    public static void setCacheBitField(final String key, final int bits, final long[] indexes, final long value) {
+        createBitFieldBatch(key, bits, indexes, value).execute();
+    }
+
+    /**
+     * 异步批量设置Bitmap中多个定长无符号整数字段的值，不阻塞调用线程
+     *
+     * @param key     Redis键
+     * @param bits    字段位数
+     * @param indexes 字段序号数组
+     * @param value   值
+     */
+    public static RFuture<BatchResult<?>> setCacheBitFieldAsync(final String key, final int bits, final long[] indexes, final long value) {
+        return createBitFieldBatch(key, bits, indexes, value).executeAsync();
+    }
+
+    private static RBatch createBitFieldBatch(final String key, final int bits, final long[] indexes, final long value) {
+        RBatch batch = CLIENT.createBatch();
+        RBitSetAsync rBitSet = batch.getBitSet(key);
+        for (long index : indexes) {
+            rBitSet.setUnsignedAsync(bits, index * bits, value);
+        }
+        return batch;
+    }
+
+    /**
+     * 获取Bitmap中定长无符号整数字段的值
+     *
+     * @param key   Redis键
+     * @param bits  字段位数
+     * @param index 字段序号(位偏移量为 index * bits)
+     * @return 字段值
+     */
+    public static long getCacheBitField(final String key, final int bits, final long index) {
+        RBitSet rBitSet = CLIENT.getBitSet(key);
+        return rBitSet.getUnsigned(bits, index * bits);
+    }
+
+    /**
+     * 异步获取Bitmap中定长无符号整数字段的值
+     *
+     * @param key   Redis键
+     * @param bits  字段位数
+     * @param index 字段序号(位偏移量为 index * bits)
+     * @return 字段值
+     */
+    public static RFuture<Long> getCacheBitFieldAsync(final String key, final int bits, final long index) {
+        RBitSet rBitSet = CLIENT.getBitSet(key);
+        return rBitSet.getUnsignedAsync(bits, index * bits);
+    }
+
+    /**
+     * 批量获取Bitmap中多个定长无符号整数字段的值
+     * <p>
+     * 每 1000 个字段在Lua脚本中组装为一条 BITFIELD GET 命令，只产生一次网络往返
+     *
+     * @param key     Redis键
+     * @param bits    字段位数
+     * @param indexes 字段序号数组(位偏移量为 index * bits)
+     * @return 与 indexes 顺序一致的字段值
+     */
+    public static long[] getCacheBitFields(final String key, final int bits, final long[] indexes) {
+        long[] values = new long[indexes.length];
+        for (int from = 0; from < indexes.length; from += 1000) {
+            int to = Math.min(from + 1000, indexes.length);
+            Object[] args = new Object[to - from + 1];
+            args[0] = "u" + bits;
+            for (int i = from; i < to; i++) {
+                args[i - from + 1] = indexes[i] * bits;
+            }
+            List<Object> result = evalScript("local args = {} " +
+                            "for j = 2, #ARGV do args[#args + 1] = 'GET' args[#args + 1] = ARGV[1] args[#args + 1] = ARGV[j] end " +
+                            "return redis.call('bitfield', KEYS[1], unpack(args))",
+                    RScript.ReturnType.MULTI, Collections.singletonList(key), args);
+            for (int i = from; i < to; i++) {
+                values[i] = Long.parseLong(String.valueOf(result.get(i - from)));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 获取字符串类型缓存的长度(字节数)
+     *
+     * @param key Redis键
+     * @return 字节数
+     */
+    public static long getCacheSize(final String key) {
+        return CLIENT.getBucket(key).size();
+    }
+
+    /**
+     * 获得缓存的原始字节
+     *
+     * @param key Redis键
+     * @return 原始字节，不存在时为 null
+     */
+    public static byte[] getCacheBytes(final String key) {
+        RBucket<byte[]> bucket = CLIENT.getBucket(key, ByteArrayCodec.INSTANCE);
+        return bucket.get();
+    }
+
+    /**
+     * 批量获得缓存的原始字节
+     * <p>
+     * 全部 GET 命令通过 RBatch 管道一次性提交
+     *
+     * @param keys Redis键集合
+     * @return 与 keys 顺序一致的原始字节，不存在时为 null
+     */
+    public static List<byte[]> getCacheBytes(final Collection<String> keys) {
+        RBatch batch = CLIENT.createBatch();
+        for (String key : keys) {
+            batch.getBucket(key, ByteArrayCodec.INSTANCE).getAsync();
+        }
+        return (List<byte[]>) batch.execute().getResponses();
+    }
+
+    /**
+     * 批量比较并设置原始字节：当前值与期望值一致的键设置为新值并设置有效时间(SET PX)，在一个脚本内原子执行
+     * <p>
+     * 键需位于同一个slot(集群模式下使用相同的hash tag)
+     *
+     * @param keys     Redis键列表
+     * @param expects  与 keys 顺序一致的期望值，null 表示期望键不存在
+     * @param updates  与 keys 顺序一致的新值
+     * @param duration 有效时间
+     * @return 当前值已被修改、未能设置的键在 keys 中的位置
+     */
+    public static List<Integer> compareAndSetCacheBytes(final List<String> keys, final List<byte[]> expects,
+                                                        final List<byte[]> updates, final Duration duration) {
+        Object[] args = new Object[keys.size() * 2 + 1];
+        args[0] = String.valueOf(duration.toMillis()).getBytes();
+        for (int i = 0; i < keys.size(); i++) {
+            args[i * 2 + 1] = null != expects.get(i) ? expects.get(i) : new byte[0];
+            args[i * 2 + 2] = updates.get(i);
+        }
+        RScript rScript = CLIENT.getScript(ByteArrayCodec.INSTANCE);
+        List<Object> failed = rScript.eval(RScript.Mode.READ_WRITE,
+                "local failed = {} " +
+                        "for i = 1, #KEYS do " +
+                        "local current = redis.call('get', KEYS[i]) " +
+                        "local expect = ARGV[i * 2] " +
+                        "if (current == false and expect == '') or current == expect then " +
+                        "redis.call('set', KEYS[i], ARGV[i * 2 + 1], 'PX', ARGV[1]) " +
+                        "else failed[#failed + 1] = i - 1 end " +
+                        "end " +
+                        "return failed",
+                RScript.ReturnType.MULTI, (List<Object>) (List<?>) keys, args);
+        return failed.stream().map(i -> Integer.parseInt(i.toString())).collect(Collectors.toList());
+    }
+
+    /**
+     * 获取字符串类型缓存中指定范围的原始字节(GETRANGE)
+     *
+     * @param key   Redis键
+     * @param start 起始字节(包含)
+     * @param end   结束字节(包含)
+     * @return 原始字节，不存在时为空数组
+     */
+    public static byte[] getCacheRange(final String key, final long start, final long end) {
+        RScript rScript = CLIENT.getScript(ByteArrayCodec.INSTANCE);
+        byte[] bytes = rScript.eval(RScript.Mode.READ_ONLY, "return redis.call('getrange', KEYS[1], ARGV[1], ARGV[2])",
+                RScript.ReturnType.VALUE, Collections.singletonList(key), String.valueOf(start).getBytes(), String.valueOf(end).getBytes());
+        return bytes == null ? new byte[0] : bytes;
+    }
+
+    /**
+     * 以 SETRANGE 将缓存从 start 开始的 length 个字节置为 0，字符串长度不变
+     *
+     * @param key    Redis键
+     * @param start  起始字节位置
+     * @param length 字节数
+     */
+    public static void zeroCacheRange(final String key, final long start, final int length) {
+        RScript rScript = CLIENT.getScript(ByteArrayCodec.INSTANCE);
+        rScript.eval(RScript.Mode.READ_WRITE, "return redis.call('setrange', KEYS[1], ARGV[1], ARGV[2])",
+                RScript.ReturnType.INTEGER, Collections.singletonList(key), String.valueOf(start).getBytes(), new byte[length]);
+    }
+
+    /**
+     * 异步统计Bitmap中值为 true 的位的数量
+     *
+     * @param key Redis键
+     * @return 值为true的位的数量
+     */
+    public static RFuture<Long> countCacheBitSetAsync(final String key) {
+        RBitSet rBitSet = CLIENT.getBitSet(key);
+        return rBitSet.cardinalityAsync();
+    }
+
     /**
      * 获得缓存的Bitmap对象。
      *
@@ -563,6 +957,47 @@ public class RedisUtils {
         return rBitSet;
     }
 
+    /**
+     * 执行Lua脚本
+     * <p>
+     * 已开启 useScriptCache，脚本首次执行后以 EVALSHA 方式发送，不再重复传输脚本内容
+     * 参数统一使用 String 编码，便于脚本内直接 tonumber 处理
+     *
+     * @param script     Lua脚本
+     * @param returnType 返回值类型
+     * @param keys       脚本使用的Redis键(会自动添加key前缀)
+     * @param values     脚本参数
+     * @return 脚本返回值
+     */
+    public static <R> R evalScript(final String script, final RScript.ReturnType returnType, final List<Object> keys, final Object... values) {
+        RScript rScript = CLIENT.getScript(StringCodec.INSTANCE);
+        return rScript.eval(RScript.Mode.READ_WRITE, script, returnType, keys, values);
+    }
+
+    /**
+     * 异步执行Lua脚本，不阻塞调用线程
+     *
+     * @param script     Lua脚本
+     * @param returnType 返回值类型
+     * @param keys       脚本使用的Redis键(会自动添加key前缀)
+     * @param values     脚本参数
+     * @return 脚本返回值
+     */
+    public static <R> RFuture<R> evalScriptAsync(final String script, final RScript.ReturnType returnType, final List<Object> keys, final Object... values) {
+        RScript rScript = CLIENT.getScript(StringCodec.INSTANCE);
+        return rScript.evalAsync(RScript.Mode.READ_WRITE, script, returnType, keys, values);
+    }
+
+    /**
+     * 获取Redis服务器当前时间
+     *
+     * @return 时间戳，单位：毫秒
+     */
+    public static long getServerTimeMillis() {
+        List<Object> time = evalScript("return redis.call('time')", RScript.ReturnType.MULTI, Collections.emptyList());
+        return Long.parseLong(time.get(0).toString()) * 1000 + Long.parseLong(time.get(1).toString()) / 1000;
+    }
+
     /**
      * 获得缓存的基本对象列表
      *
@@ -0,0 +1,159 @@
+package com.jjys.cpeonlinestatus.service;
+
+import com.jjys.cpeonlinestatus.redis.utils.RedisUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 窗口bitset按设备ID范围分片
+ * 分片键为 {prefix}{index}:{offset >> shardBits}，分片内偏移量为 offset 的低 shardBits 位
+ * 每个分片的大小不超过 2^shardBits 位，并可分布到Redis集群的不同节点上
+ * shardBits 为 0 时不分片，键为 {prefix}{index}，偏移量不变
+ * 开启固定环时 {index} 替换为 r{index % ringSize}，ringSize 个固定键循环复用，不再随index增长产生新键
+ */
+public class BitsetShardRouter {
+    private final String keyPrefix;
+    private final int shardBits;
+    //保存已使用的最大分片号的Redis键
+    private final String maxShardKey;
+    //固定环的键数量，0 表示不使用固定环
+    private final int ringSize;
+    //本节点已知的最大分片号
+    private volatile long maxShard = -1;
+
+    public BitsetShardRouter(String keyPrefix, int shardBits, String maxShardKey) {
+        this(keyPrefix, shardBits, maxShardKey, 0);
+    }
+
+    public BitsetShardRouter(String keyPrefix, int shardBits, String maxShardKey, int ringSize) {
+        this.keyPrefix = keyPrefix;
+        this.shardBits = shardBits;
+        this.maxShardKey = maxShardKey;
+        this.ringSize = ringSize;
+    }
+
+    /**
+     * 键前缀
+     */
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    /**
+     * 固定环的键数量，0 表示不使用固定环
+     */
+    public int getRingSize() {
+        return ringSize;
+    }
+
+    /**
+     * 分片位数，不分片时为 0
+     */
+    public int getShardBits() {
+        return shardBits;
+    }
+
+    /**
+     * 是否开启分片
+     */
+    public boolean isEnabled() {
+        return shardBits > 0;
+    }
+
+    /**
+     * 偏移量所在的分片号
+     */
+    public long shard(long offset) {
+        return isEnabled() ? offset >>> shardBits : 0;
+    }
+
+    /**
+     * 偏移量在分片内的偏移量
+     */
+    public long local(long offset) {
+        return isEnabled() ? offset & ((1L << shardBits) - 1) : offset;
+    }
+
+    /**
+     * 分片的键
+     */
+    public String key(int index, long shard) {
+        String name = ringSize > 0 ? "r" + Math.floorMod(index, ringSize) : String.valueOf(index);
+        return isEnabled() ? keyPrefix + name + ":" + shard : keyPrefix + name;
+    }
+
+    /**
+     * 偏移量所在分片的键
+     */
+    public String keyOf(int index, long offset) {
+        return key(index, shard(offset));
+    }
+
+    /**
+     * 按分片分组，返回 分片号 -> 分片内偏移量数组
+     */
+    public Map<Long, long[]> group(long[] offsets) {
+        if (!isEnabled()) {
+            return Map.of(0L, offsets);
+        }
+        long[] sorted = offsets.clone();
+        Arrays.sort(sorted);
+        Map<Long, long[]> groups = new LinkedHashMap<>();
+        int from = 0;
+        while (from < sorted.length) {
+            long shard = shard(sorted[from]);
+            int to = from;
+            while (to < sorted.length && shard(sorted[to]) == shard) {
+                to++;
+            }
+            long[] locals = new long[to - from];
+            for (int i = from; i < to; i++) {
+                locals[i - from] = local(sorted[i]);
+            }
+            groups.put(shard, locals);
+            observe(shard);
+            from = to;
+        }
+        return groups;
+    }
+
+    /**
+     * 记录写入的分片号，超过已知的最大分片号时同步更新到Redis
+     */
+    private void observe(long shard) {
+        if (shard > maxShard) {
+            maxShard = RedisUtils.maxAtomicValue(maxShardKey, shard);
+        }
+    }
+
+    /**
+     * 从Redis读取所有节点已使用的最大分片号
+     */
+    public long loadMaxShard() {
+        if (!isEnabled()) {
+            return 0;
+        }
+        long shard = Math.max(RedisUtils.getAtomicValue(maxShardKey), 0);
+        if (shard > maxShard) {
+            maxShard = shard;
+        }
+        return shard;
+    }
+
+    /**
+     * 指定index的所有分片键
+     */
+    public List<String> keys(int index) {
+        long max = loadMaxShard();
+        List<String> keys = new ArrayList<>((int) max + 1);
+        for (long shard = 0; shard <= max; shard++) {
+            keys.add(key(index, shard));
+        }
+        return keys;
+    }
+
+}
@@ -0,0 +1,197 @@
+package com.jjys.cpeonlinestatus.service;
+
+import com.jjys.cpeonlinestatus.bean.DeviceInfo;
+import com.jjys.cpeonlinestatus.enums.DeviceAttribute;
+import com.jjys.cpeonlinestatus.redis.utils.RedisUtils;
+import org.redisson.api.RScript;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 设备属性bitset索引
+ * 每个维度(厂商、代理商、模型、软件版本)的每个取值对应一个bitset：{prefix}{维度}:{取值}，第 offset 位表示设备属于该取值
+ * 同时以哈希 {prefix}{维度} 保存每个设备当前的取值(offset -> 取值)，属性变化时清除旧取值的位
+ * 以集合 {prefix}{维度}_values 登记出现过的全部取值，列出取值时不扫描键空间(取值的bitset清空后仍保留，统计结果为 0)
+ * 与在线状态bitset按位与即可得到某一取值下的在线设备
+ */
+public class DeviceAttributeIndex {
+    /**
+     * 更新一个设备全部维度的取值：取值变化时清除旧取值bitset的位并设置新取值bitset的位，取值为空字符串表示删除
+     * KEYS[3i-2]: 维度取值哈希  KEYS[3i-1]: 维度bitset键前缀  KEYS[3i]: 维度取值集合
+     * ARGV[1]: 偏移量  ARGV[i+1]: 第 i 个维度的取值
+     */
+    private static final String UPDATE_SCRIPT =
+            "local changed = 0 " +
+            "for i = 1, #KEYS, 3 do " +
+            "local value = ARGV[(i + 2) / 3 + 1] " +
+            "local old = redis.call('hget', KEYS[i], ARGV[1]) " +
+            "if old ~= value and not (old == false and value == '') then " +
+            "if old then redis.call('setbit', KEYS[i + 1] .. old, ARGV[1], 0) end " +
+            "if value == '' then redis.call('hdel', KEYS[i], ARGV[1]) " +
+            "else redis.call('setbit', KEYS[i + 1] .. value, ARGV[1], 1) redis.call('hset', KEYS[i], ARGV[1], value) " +
+            "redis.call('sadd', KEYS[i + 2], value) end " +
+            "changed = changed + 1 " +
+            "end " +
+            "end " +
+            "return changed";
+    /**
+     * 各取值在线数量统计脚本：每个取值的bitset与窗口bitset按位与写入临时键后计数，结束后删除临时键
+     * KEYS[1]: 临时键  KEYS[2]: 窗口bitset键  KEYS[3...]: 取值bitset键
+     */
+    private static final String COUNT_VALUES_SCRIPT =
+            "local counts = {} " +
+            "for i = 3, #KEYS do " +
+            "redis.call('bitop', 'and', KEYS[1], KEYS[i], KEYS[2]) " +
+            "counts[i - 2] = redis.call('bitcount', KEYS[1]) " +
+            "end " +
+            "redis.call('del', KEYS[1]) " +
+            "return counts";
+    private static final String MEMBERS_SCRIPT = "return redis.call('smembers', KEYS[1])";
+    private static final String HMGET_SCRIPT = "return redis.call('hmget', KEYS[1], unpack(ARGV))";
+    //重建索引时每批并发执行的数量
+    private static final int REBUILD_BATCH_SIZE = 1000;
+    //统计时单次脚本处理的取值或偏移量数量
+    private static final int COUNT_BATCH_SIZE = 1000;
+
+    private final String keyPrefix;
+    private final List<Object> scriptKeys = new ArrayList<>();
+
+    public DeviceAttributeIndex(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+        for (DeviceAttribute attribute : DeviceAttribute.values()) {
+            scriptKeys.add(keyPrefix + attribute.getCode());
+            scriptKeys.add(keyPrefix + attribute.getCode() + ":");
+            scriptKeys.add(keyPrefix + attribute.getCode() + "_values");
+        }
+    }
+
+    /**
+     * 指定维度取值的bitset键
+     */
+    public String key(DeviceAttribute attribute, String value) {
+        return keyPrefix + attribute.getCode() + ":" + value;
+    }
+
+    /**
+     * 指定维度当前已有的全部取值
+     */
+    public List<String> values(DeviceAttribute attribute) {
+        List<Object> members = RedisUtils.evalScript(MEMBERS_SCRIPT, RScript.ReturnType.MULTI,
+                List.of(keyPrefix + attribute.getCode() + "_values"));
+        List<String> values = new ArrayList<>(members.size());
+        members.forEach(member -> values.add(member.toString()));
+        return values;
+    }
+
+    /**
+     * 在Redis中统计窗口bitset与各取值bitset按位与后的数量，不拉取bitset到本地(窗口bitset不分片时使用)
+     *
+     * @param attribute 属性维度
+     * @param windowKey 窗口bitset键
+     * @param tmpKey    按位与结果的临时键
+     * @return 取值 -> 数量
+     */
+    public Map<String, Long> countValues(DeviceAttribute attribute, String windowKey, String tmpKey) {
+        List<String> values = values(attribute);
+        Map<String, Long> counts = new HashMap<>();
+        for (int from = 0; from < values.size(); from += COUNT_BATCH_SIZE) {
+            int to = Math.min(from + COUNT_BATCH_SIZE, values.size());
+            List<Object> keys = new ArrayList<>(to - from + 2);
+            keys.add(tmpKey);
+            keys.add(windowKey);
+            for (int i = from; i < to; i++) {
+                keys.add(key(attribute, values.get(i)));
+            }
+            List<Long> result = RedisUtils.evalScript(COUNT_VALUES_SCRIPT, RScript.ReturnType.MULTI, keys);
+            for (int i = from; i < to; i++) {
+                counts.put(values.get(i), result.get(i - from));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 按设备当前的取值统计偏移量的数量，只读取给定偏移量的取值(窗口bitset分片时以窗口中的在线偏移量使用)
+     *
+     * @param attribute 属性维度
+     * @param offsets   偏移量数组
+     * @return 取值 -> 数量
+     */
+    public Map<String, Long> countValues(DeviceAttribute attribute, long[] offsets) {
+        Map<String, Long> counts = new HashMap<>();
+        List<Object> hashKey = List.of(keyPrefix + attribute.getCode());
+        for (int from = 0; from < offsets.length; from += COUNT_BATCH_SIZE) {
+            int to = Math.min(from + COUNT_BATCH_SIZE, offsets.length);
+            Object[] args = new Object[to - from];
+            for (int i = from; i < to; i++) {
+                args[i - from] = offsets[i];
+            }
+            List<Object> result = RedisUtils.evalScript(HMGET_SCRIPT, RScript.ReturnType.MULTI, hashKey, args);
+            for (Object value : result) {
+                if (null != value) counts.merge(value.toString(), 1L, Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 新增或修改设备时更新索引
+     *
+     * @param offset     设备偏移量
+     * @param deviceInfo 设备信息(为空的属性视为删除该维度)
+     */
+    public void update(long offset, DeviceInfo deviceInfo) {
+        RedisUtils.evalScript(UPDATE_SCRIPT, RScript.ReturnType.INTEGER, scriptKeys, args(offset, deviceInfo));
+    }
+
+    /**
+     * 删除设备时从全部维度中移除
+     *
+     * @param offset 设备偏移量
+     */
+    public void remove(long offset) {
+        RedisUtils.evalScript(UPDATE_SCRIPT, RScript.ReturnType.INTEGER, scriptKeys, args(offset, null));
+    }
+
+    private static Object[] args(long offset, DeviceInfo deviceInfo) {
+        DeviceAttribute[] attributes = DeviceAttribute.values();
+        Object[] args = new Object[attributes.length + 1];
+        args[0] = offset;
+        for (int i = 0; i < attributes.length; i++) {
+            Object value = null != deviceInfo ? attributes[i].getGetter().apply(deviceInfo) : null;
+            args[i + 1] = null != value ? value.toString() : "";
+        }
+        return args;
+    }
+
+    /**
+     * 删除全部索引后，以全量设备信息重建，每批并发执行 REBUILD_BATCH_SIZE 个设备
+     *
+     * @param offsets     设备偏移量，与 deviceInfos 顺序一致
+     * @param deviceInfos 设备信息
+     */
+    public void rebuild(long[] offsets, List<DeviceInfo> deviceInfos) {
+        clear();
+        for (int from = 0; from < deviceInfos.size(); from += REBUILD_BATCH_SIZE) {
+            int to = Math.min(from + REBUILD_BATCH_SIZE, deviceInfos.size());
+            CompletableFuture<?>[] futures = new CompletableFuture[to - from];
+            for (int i = from; i < to; i++) {
+                futures[i - from] = RedisUtils.evalScriptAsync(UPDATE_SCRIPT, RScript.ReturnType.INTEGER, scriptKeys,
+                        args(offsets[i], deviceInfos.get(i))).toCompletableFuture();
+            }
+            CompletableFuture.allOf(futures).join();
+        }
+    }
+
+    /**
+     * 删除全部索引
+     */
+    public void clear() {
+        RedisUtils.deleteKeys(keyPrefix + "*");
+    }
+
+}
@@ -0,0 +1,240 @@
+package com.jjys.cpeonlinestatus.service;
+
+import com.jjys.cpeonlinestatus.redis.utils.RedisUtils;
+import org.redisson.api.RScript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 设备心跳类别
+ * 不同型号的设备心跳间隔不同(如机顶盒 60s、路由器 300s、CPE 1800s)，按 modelId 划分心跳类别
+ * 每个非默认类别以一个bitset保存成员：{prefix}{心跳间隔}，第 offset 位表示设备属于该类别，不属于任何类别的设备使用默认心跳间隔
+ * 各节点在本地保存全部类别bitset的快照，写入心跳时直接在本地判断类别，不查询数据库或Redis
+ * 类别变化时通过发布订阅通知所有节点更新本地快照
+ */
+public class DeviceHeartbeatClasses {
+    /**
+     * 设置设备的类别：清除设备在其他类别bitset中的位，设置目标类别bitset的位
+     * KEYS: 全部非默认类别bitset键  ARGV[1]: 偏移量  ARGV[2]: 目标类别在 KEYS 中的位置(0 表示默认类别)
+     */
+    private static final String UPDATE_SCRIPT =
+            "local target = tonumber(ARGV[2]) " +
+            "for i = 1, #KEYS do redis.call('setbit', KEYS[i], ARGV[1], i == target and 1 or 0) end " +
+            "return target";
+    //通知重新加载全部类别的消息
+    private static final String RELOAD_MESSAGE = "reload";
+    //重建时单条 BITFIELD 命令包含的最大偏移量数量
+    private static final int REBUILD_CHUNK_SIZE = 1000;
+
+    private final String topic;
+    //各类别的心跳间隔，第 0 个为默认类别(运行时重新配置默认心跳间隔时整体替换)
+    private volatile int[] heartbeats;
+    //非默认类别的bitset键，与 heartbeats[1...] 顺序一致
+    private final List<Object> keys = new ArrayList<>();
+    //modelId -> 类别
+    private final Map<Long, Integer> modelClasses = new HashMap<>();
+    //非默认类别成员的本地快照，与 heartbeats 顺序一致，第 0 个始终为 null
+    private volatile DeviceStatusSnapshot[] members;
+
+    /**
+     * @param keyPrefix        bitset键前缀
+     * @param defaultHeartbeat 默认心跳间隔，单位：秒
+     * @param classModels      心跳间隔 -> 属于该类别的modelId
+     */
+    public DeviceHeartbeatClasses(String keyPrefix, int defaultHeartbeat, Map<Integer, List<Long>> classModels) {
+        this.topic = keyPrefix + "topic";
+        this.heartbeats = new int[classModels.size() + 1];
+        this.heartbeats[0] = defaultHeartbeat;
+        int c = 1;
+        for (Map.Entry<Integer, List<Long>> entry : classModels.entrySet()) {
+            heartbeats[c] = entry.getKey();
+            keys.add(keyPrefix + entry.getKey());
+            for (Long modelId : entry.getValue()) {
+                modelClasses.put(modelId, c);
+            }
+            c++;
+        }
+        this.members = new DeviceStatusSnapshot[heartbeats.length];
+    }
+
+    /**
+     * 解析心跳类别配置，格式：心跳间隔:modelId,modelId;心跳间隔:modelId
+     * 例如 60:101,102;300:201 表示型号 101、102 的心跳间隔为 60s，型号 201 为 300s
+     *
+     * @return 心跳间隔 -> modelId列表，配置为空时返回空
+     */
+    public static Map<Integer, List<Long>> parse(String config) {
+        Map<Integer, List<Long>> classModels = new LinkedHashMap<>();
+        if (null == config || config.isBlank()) return classModels;
+        for (String item : config.split(";")) {
+            if (item.isBlank()) continue;
+            String[] parts = item.split(":");
+            List<Long> modelIds = classModels.computeIfAbsent(Integer.parseInt(parts[0].trim()), k -> new ArrayList<>());
+            if (parts.length > 1) {
+                for (String modelId : parts[1].split(",")) {
+                    if (!modelId.isBlank()) modelIds.add(Long.parseLong(modelId.trim()));
+                }
+            }
+        }
+        return classModels;
+    }
+
+    /**
+     * 订阅类别变化通知并加载本地快照
+     */
+    public void start() {
+        RedisUtils.subscribe(topic, String.class, this::apply);
+        reload();
+    }
+
+    /**
+     * 从Redis重新加载全部类别的本地快照
+     */
+    public void reload() {
+        DeviceStatusSnapshot[] loaded = new DeviceStatusSnapshot[heartbeats.length];
+        for (int c = 1; c < heartbeats.length; c++) {
+            loaded[c] = DeviceStatusSnapshot.load(0, List.of(keys.get(c - 1).toString()), 0);
+        }
+        members = loaded;
+    }
+
+    /**
+     * 处理类别变化通知：offset:类别 或 reload
+     */
+    private void apply(String message) {
+        if (RELOAD_MESSAGE.equals(message)) {
+            reload();
+            return;
+        }
+        int split = message.indexOf(':');
+        setLocal(Long.parseLong(message.substring(0, split)), Integer.parseInt(message.substring(split + 1)));
+    }
+
+    private void setLocal(long offset, int target) {
+        DeviceStatusSnapshot[] members = this.members;
+        for (int c = 1; c < members.length; c++) {
+            if (null != members[c]) {
+                members[c].set(offset, c == target);
+            }
+        }
+    }
+
+    /**
+     * 修改默认类别的心跳间隔(运行时重新配置)
+     */
+    public void setDefaultHeartbeat(int heartbeat) {
+        int[] updated = heartbeats.clone();
+        updated[0] = heartbeat;
+        heartbeats = updated;
+    }
+
+    /**
+     * 全部类别的心跳间隔(包含默认类别)，单位：秒
+     */
+    public int[] getHeartbeats() {
+        return heartbeats.clone();
+    }
+
+    /**
+     * 设备的心跳间隔，单位：秒
+     *
+     * @param offset 设备偏移量
+     */
+    public int heartbeatOf(long offset) {
+        DeviceStatusSnapshot[] members = this.members;
+        int[] heartbeats = this.heartbeats;
+        for (int c = 1; c < members.length; c++) {
+            if (null != members[c] && members[c].get(offset)) {
+                return heartbeats[c];
+            }
+        }
+        return heartbeats[0];
+    }
+
+    /**
+     * 按心跳间隔分组，组内保持原有顺序
+     *
+     * @return 心跳间隔 -> 偏移量数组
+     */
+    public Map<Integer, long[]> group(long[] offsets) {
+        if (heartbeats.length == 1) {
+            return Map.of(heartbeats[0], offsets);
+        }
+        Map<Integer, long[]> groups = new LinkedHashMap<>();
+        Map<Integer, Integer> sizes = new HashMap<>();
+        for (long offset : offsets) {
+            int heartbeat = heartbeatOf(offset);
+            int size = sizes.getOrDefault(heartbeat, 0);
+            long[] group = groups.computeIfAbsent(heartbeat, k -> new long[offsets.length]);
+            group[size] = offset;
+            sizes.put(heartbeat, size + 1);
+        }
+        groups.replaceAll((heartbeat, group) -> Arrays.copyOf(group, sizes.get(heartbeat)));
+        return groups;
+    }
+
+    /**
+     * 新增或修改设备时按型号更新设备的类别
+     *
+     * @param offset  设备偏移量
+     * @param modelId 设备型号，为空或不属于任何类别时使用默认类别
+     */
+    public void update(long offset, Long modelId) {
+        if (keys.isEmpty()) return;
+        int target = null != modelId ? modelClasses.getOrDefault(modelId, 0) : 0;
+        RedisUtils.evalScript(UPDATE_SCRIPT, RScript.ReturnType.INTEGER, keys, offset, target);
+        setLocal(offset, target);
+        RedisUtils.publish(topic, offset + ":" + target);
+    }
+
+    /**
+     * 删除全部类别后，以全量设备重建，完成后通知所有节点重新加载
+     *
+     * @param offsets  设备偏移量，与 modelIds 顺序一致
+     * @param modelIds 设备型号
+     */
+    public void rebuild(long[] offsets, List<Long> modelIds) {
+        if (keys.isEmpty()) return;
+        byte[] classes = new byte[offsets.length];
+        int[] sizes = new int[heartbeats.length];
+        for (int i = 0; i < offsets.length; i++) {
+            Long modelId = modelIds.get(i);
+            classes[i] = (byte) (null != modelId ? modelClasses.getOrDefault(modelId, 0) : 0);
+            sizes[classes[i]]++;
+        }
+        List<String> classKeys = new ArrayList<>();
+        keys.forEach(key -> classKeys.add(key.toString()));
+        RedisUtils.deleteObject(classKeys);
+        for (int c = 1; c < heartbeats.length; c++) {
+            long[] members = new long[sizes[c]];
+            for (int i = 0, n = 0; i < offsets.length; i++) {
+                if (classes[i] == c) members[n++] = offsets[i];
+            }
+            for (int from = 0; from < members.length; from += REBUILD_CHUNK_SIZE) {
+                RedisUtils.setCacheBitSets(List.of(classKeys.get(c - 1)),
+                        Arrays.copyOfRange(members, from, Math.min(from + REBUILD_CHUNK_SIZE, members.length)), true);
+            }
+        }
+        reload();
+        RedisUtils.publish(topic, RELOAD_MESSAGE);
+    }
+
+    /**
+     * 非默认类别中是否已有设备(为空时需要从数据库重建)
+     */
+    public boolean isEmpty() {
+        DeviceStatusSnapshot[] members = this.members;
+        for (int c = 1; c < members.length; c++) {
+            if (null != members[c] && members[c].count() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
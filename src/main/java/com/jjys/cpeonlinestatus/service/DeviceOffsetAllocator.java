@@ -0,0 +1,372 @@
+package com.jjys.cpeonlinestatus.service;
+
+import com.jjys.cpeonlinestatus.redis.utils.RedisUtils;
+import org.redisson.api.RScript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 设备ID -> 紧凑偏移量 分配器
+ * 设备ID(如雪花ID)直接作为bitset偏移量时，单个SETBIT就可能分配数百MB内存
+ * 为每个设备分配从 0 开始连续的偏移量，映射关系保存在Redis哈希中，设备删除后偏移量回收到空闲列表中复用
+ * 本地缓存已分配的映射，命中时不访问Redis；偏移量回收时通过发布订阅通知所有节点移除本地缓存
+ */
+public class DeviceOffsetAllocator {
+    //查询或分配偏移量：已分配直接返回；否则优先从空闲列表取出，空闲列表为空时递增序号
+    //KEYS[1]: 映射哈希  KEYS[2]: 空闲列表  KEYS[3]: 序号  KEYS[4]: 反向映射哈希  ARGV[1]: 设备ID
+    private static final String ALLOCATE_SCRIPT =
+            "local offset = redis.call('hget', KEYS[1], ARGV[1]) " +
+            "if offset then return tonumber(offset) end " +
+            "offset = redis.call('lpop', KEYS[2]) " +
+            "if not offset then offset = redis.call('incr', KEYS[3]) - 1 end " +
+            "redis.call('hset', KEYS[1], ARGV[1], offset) " +
+            "redis.call('hset', KEYS[4], offset, ARGV[1]) " +
+            "return tonumber(offset)";
+    //回收偏移量：删除映射并放回空闲列表，返回回收的偏移量，未分配时返回 -1
+    //KEYS[1]: 映射哈希  KEYS[2]: 空闲列表  KEYS[3]: 反向映射哈希  ARGV[1]: 设备ID
+    private static final String RELEASE_SCRIPT =
+            "local offset = redis.call('hget', KEYS[1], ARGV[1]) " +
+            "if not offset then return -1 end " +
+            "redis.call('hdel', KEYS[1], ARGV[1]) " +
+            "redis.call('hdel', KEYS[3], offset) " +
+            "redis.call('rpush', KEYS[2], offset) " +
+            "return tonumber(offset)";
+    //查询偏移量，未分配时返回 -1
+    //KEYS[1]: 映射哈希  ARGV[1]: 设备ID
+    private static final String LOOKUP_SCRIPT =
+            "local offset = redis.call('hget', KEYS[1], ARGV[1]) " +
+            "if not offset then return -1 end " +
+            "return tonumber(offset)";
+    //批量查询偏移量对应的设备ID
+    //KEYS[1]: 反向映射哈希  ARGV: 偏移量
+    private static final String REVERSE_SCRIPT = "return redis.call('hmget', KEYS[1], unpack(ARGV))";
+
+    private final String mapKey;
+    private final String reverseKey;
+    private final String freeKey;
+    private final String seqKey;
+    private final String releaseTopic;
+    final LongIntMap cache = new LongIntMap();
+
+    public DeviceOffsetAllocator(String keyPrefix) {
+        this.mapKey = keyPrefix + "offset_map";
+        this.reverseKey = keyPrefix + "offset_ids";
+        this.freeKey = keyPrefix + "offset_free";
+        this.seqKey = keyPrefix + "offset_seq";
+        this.releaseTopic = keyPrefix + "offset_release_topic";
+    }
+
+    /**
+     * 订阅偏移量回收通知
+     * 通知以字符串发布：数值经JSON编解码后小于 2^31 的设备ID为 Integer，按 Long 订阅时会被监听器过滤掉
+     */
+    public void start() {
+        RedisUtils.subscribe(releaseTopic, String.class, this::onReleased);
+    }
+
+    /**
+     * 收到其他节点的回收通知后清除本地缓存的偏移量
+     *
+     * @param message 设备ID字符串
+     */
+    void onReleased(String message) {
+        cache.remove(Long.parseLong(message));
+    }
+
+    /**
+     * 获取设备的偏移量，未分配时分配新的偏移量(心跳写入使用)
+     *
+     * @param deviceId 设备ID
+     * @return 偏移量
+     */
+    public long allocate(long deviceId) {
+        int offset = cache.get(deviceId);
+        if (offset >= 0) {
+            return offset;
+        }
+        Long allocated = RedisUtils.evalScript(ALLOCATE_SCRIPT, RScript.ReturnType.INTEGER,
+                List.of(mapKey, freeKey, seqKey, reverseKey), deviceId);
+        cache.put(deviceId, allocated.intValue());
+        return allocated;
+    }
+
+    /**
+     * 异步获取设备的偏移量，未分配时分配新的偏移量，本地缓存命中时直接返回
+     *
+     * @param deviceId 设备ID
+     * @return 偏移量
+     */
+    public CompletionStage<Long> allocateAsync(long deviceId) {
+        int offset = cache.get(deviceId);
+        if (offset >= 0) {
+            return CompletableFuture.completedFuture((long) offset);
+        }
+        return RedisUtils.<Long>evalScriptAsync(ALLOCATE_SCRIPT, RScript.ReturnType.INTEGER,
+                List.of(mapKey, freeKey, seqKey, reverseKey), deviceId).thenApply(allocated -> {
+            cache.put(deviceId, allocated.intValue());
+            return allocated;
+        });
+    }
+
+    /**
+     * 获取设备的偏移量，未分配时返回 -1，不分配新的偏移量(状态查询使用)
+     *
+     * @param deviceId 设备ID
+     * @return 偏移量
+     */
+    public long lookup(long deviceId) {
+        int offset = cache.get(deviceId);
+        if (offset >= 0) {
+            return offset;
+        }
+        Long found = RedisUtils.evalScript(LOOKUP_SCRIPT, RScript.ReturnType.INTEGER, List.of(mapKey), deviceId);
+        if (found >= 0) {
+            cache.put(deviceId, found.intValue());
+        }
+        return found;
+    }
+
+    /**
+     * 异步获取设备的偏移量，未分配时返回 -1，本地缓存命中时直接返回
+     *
+     * @param deviceId 设备ID
+     * @return 偏移量
+     */
+    public CompletionStage<Long> lookupAsync(long deviceId) {
+        int offset = cache.get(deviceId);
+        if (offset >= 0) {
+            return CompletableFuture.completedFuture((long) offset);
+        }
+        return RedisUtils.<Long>evalScriptAsync(LOOKUP_SCRIPT, RScript.ReturnType.INTEGER, List.of(mapKey), deviceId)
+                .thenApply(found -> {
+                    if (found >= 0) {
+                        cache.put(deviceId, found.intValue());
+                    }
+                    return found;
+                });
+    }
+
+    /**
+     * 回收设备的偏移量(设备被逻辑删除 delFlag 时调用)，回收的偏移量会被之后注册的设备复用
+     *
+     * @param deviceId 设备ID
+     * @return 回收的偏移量，未分配时返回 -1
+     */
+    public long release(long deviceId) {
+        Long offset = RedisUtils.evalScript(RELEASE_SCRIPT, RScript.ReturnType.INTEGER,
+                List.of(mapKey, freeKey, reverseKey), deviceId);
+        cache.remove(deviceId);
+        if (offset >= 0) {
+            RedisUtils.publish(releaseTopic, String.valueOf(deviceId));
+        }
+        return offset;
+    }
+
+    /**
+     * 批量查询偏移量对应的设备ID
+     *
+     * @param offsets 偏移量数组
+     * @return 与 offsets 顺序一致的设备ID，未分配的偏移量为 null
+     */
+    public List<String> reverse(long[] offsets) {
+        List<String> deviceIds = new ArrayList<>(offsets.length);
+        for (int from = 0; from < offsets.length; from += 1000) {
+            int to = Math.min(from + 1000, offsets.length);
+            Object[] args = new Object[to - from];
+            for (int i = from; i < to; i++) {
+                args[i - from] = offsets[i];
+            }
+            List<Object> result = RedisUtils.evalScript(REVERSE_SCRIPT, RScript.ReturnType.MULTI, List.of(reverseKey), args);
+            for (Object deviceId : result) {
+                deviceIds.add(null != deviceId ? deviceId.toString() : null);
+            }
+        }
+        return deviceIds;
+    }
+
+    /**
+     * 已分配的最大偏移量+1(即bitset需要的位数)
+     */
+    public long capacity() {
+        return Math.max(RedisUtils.getAtomicValue(seqKey), 0);
+    }
+
+    /**
+     * 本地缓存的映射数量
+     */
+    public int getCachedSize() {
+        return cache.size();
+    }
+
+    /**
+     * 删除所有映射及本地缓存
+     */
+    public void clear() {
+        RedisUtils.deleteObject(List.of(mapKey, freeKey, seqKey, reverseKey));
+        cache.clear();
+    }
+
+    /**
+     * 本地缓存：long -> int 开放寻址哈希表，键值均为基本类型，不产生装箱对象
+     * 读取使用乐观读锁，写入时加写锁
+     */
+    static class LongIntMap {
+        private static final long EMPTY = -1L;
+        private final StampedLock lock = new StampedLock();
+        private long[] keys = newKeys(1024);
+        private int[] values = new int[1024];
+        private int size;
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        /**
+         * @return 值，不存在时返回 -1
+         */
+        int get(long key) {
+            if (key < 0) {
+                return -1;
+            }
+            long stamp = lock.tryOptimisticRead();
+            int value = find(key);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    value = find(key);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return value;
+        }
+
+        private int find(long key) {
+            long[] keys = this.keys;
+            int[] values = this.values;
+            //乐观读期间数组可能被替换，两个数组长度不一致时交由 validate 失败后重读
+            if (keys.length != values.length) {
+                return -1;
+            }
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask), n = 0; n < keys.length; i = (i + 1) & mask, n++) {
+                long k = keys[i];
+                if (k == key) {
+                    return values[i];
+                }
+                if (k == EMPTY) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if (key < 0) {
+                return;
+            }
+            long stamp = lock.writeLock();
+            try {
+                if ((size + 1) * 4L > keys.length * 3L) {
+                    resize(keys.length << 1);
+                }
+                int mask = keys.length - 1;
+                int i = slot(key, mask);
+                while (keys[i] != EMPTY && keys[i] != key) {
+                    i = (i + 1) & mask;
+                }
+                if (keys[i] == EMPTY) {
+                    size++;
+                }
+                values[i] = value;
+                keys[i] = key;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void remove(long key) {
+            if (key < 0) {
+                return;
+            }
+            long stamp = lock.writeLock();
+            try {
+                int mask = keys.length - 1;
+                int i = slot(key, mask);
+                while (keys[i] != key) {
+                    if (keys[i] == EMPTY) {
+                        return;
+                    }
+                    i = (i + 1) & mask;
+                }
+                //向后移动删除：将后续同一探测链上的元素前移，保证查找不被空位截断
+                int hole = i;
+                for (int j = (hole + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+                    int home = slot(keys[j], mask);
+                    if (((j - home) & mask) >= ((j - hole) & mask)) {
+                        keys[hole] = keys[j];
+                        values[hole] = values[j];
+                        hole = j;
+                    }
+                }
+                keys[hole] = EMPTY;
+                size--;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            long[] newKeys = newKeys(capacity);
+            int[] newValues = new int[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != EMPTY) {
+                    int i = slot(oldKeys[j], mask);
+                    while (newKeys[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    newKeys[i] = oldKeys[j];
+                    newValues[i] = oldValues[j];
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+
+        int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void clear() {
+            long stamp = lock.writeLock();
+            try {
+                keys = newKeys(1024);
+                values = new int[1024];
+                size = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+}
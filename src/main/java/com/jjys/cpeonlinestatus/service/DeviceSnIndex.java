@@ -0,0 +1,277 @@
+package com.jjys.cpeonlinestatus.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * 设备sn -> 设备ID 本地索引
+ * 数据保存在堆外内存中的开放寻址哈希表，不占用堆内存，也不产生GC压力
+ * 槽位表：每个槽位 24 字节 [sn哈希值][sn在数据区的位置+1][设备ID]，位置为 0 表示空槽，-1 表示已删除
+ * 数据区：按顺序追加 [sn长度(int)][sn字节]，删除/更新留下的空间在重建索引时回收
+ * 全量加载期间的增量变更同时记录下来，在替换为全量数据后重放，避免被加载前的数据覆盖
+ */
+public class DeviceSnIndex {
+    private static final int SLOT_BYTES = 24;
+    private static final long EMPTY = 0L;
+    private static final long DELETED = -1L;
+
+    private final StampedLock lock = new StampedLock();
+    private ByteBuffer table;
+    private ByteBuffer data;
+    private int capacity;
+    //已使用的槽位数量(包含已删除的槽位)
+    private int used;
+    private int size;
+    //全量加载期间的增量变更 sn -> 设备ID(-1 表示删除)，未在加载时为 null
+    private Map<String, Long> pending;
+
+    public DeviceSnIndex() {
+        this(1024);
+    }
+
+    public DeviceSnIndex(int expectedSize) {
+        init(expectedSize);
+    }
+
+    private void init(int expectedSize) {
+        capacity = Integer.highestOneBit(Math.max(expectedSize * 2, 1024) - 1) << 1;
+        table = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+        data = ByteBuffer.allocateDirect(Math.max(expectedSize, 1024) * 24);
+        used = 0;
+        size = 0;
+    }
+
+    private static long hash(byte[] sn) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : sn) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * 查询sn对应的设备ID
+     *
+     * @param sn 设备sn
+     * @return 设备ID，不存在时返回 -1
+     */
+    public long get(String sn) {
+        byte[] key = sn.getBytes(StandardCharsets.UTF_8);
+        long stamp = lock.readLock();
+        try {
+            int slot = find(key, hash(key));
+            return slot < 0 ? -1 : table.getLong(slot * SLOT_BYTES + 16);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 查找sn所在的槽位，不存在时返回 -1
+     */
+    private int find(byte[] key, long h) {
+        int mask = capacity - 1;
+        for (int i = (int) h & mask, n = 0; n < capacity; i = (i + 1) & mask, n++) {
+            int base = i * SLOT_BYTES;
+            long ref = table.getLong(base + 8);
+            if (ref == EMPTY) {
+                return -1;
+            }
+            if (ref != DELETED && table.getLong(base) == h && keyEquals(ref - 1, key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(long pos, byte[] key) {
+        int p = (int) pos;
+        if (data.getInt(p) != key.length) {
+            return false;
+        }
+        for (int j = 0; j < key.length; j++) {
+            if (data.get(p + 4 + j) != key[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 添加或更新sn对应的设备ID
+     */
+    public void put(String sn, long deviceId) {
+        byte[] key = sn.getBytes(StandardCharsets.UTF_8);
+        long stamp = lock.writeLock();
+        try {
+            putInternal(key, deviceId);
+            if (null != pending) {
+                pending.put(sn, deviceId);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void putInternal(byte[] key, long deviceId) {
+        long h = hash(key);
+        int slot = find(key, h);
+        if (slot >= 0) {
+            table.putLong(slot * SLOT_BYTES + 16, deviceId);
+            return;
+        }
+        if ((used + 1) * 4L > capacity * 3L) {
+            rehash(size * 2 >= capacity / 2 ? capacity << 1 : capacity);
+        }
+        int mask = capacity - 1;
+        int i = (int) h & mask;
+        while (table.getLong(i * SLOT_BYTES + 8) > EMPTY) {
+            i = (i + 1) & mask;
+        }
+        if (table.getLong(i * SLOT_BYTES + 8) == EMPTY) {
+            used++;
+        }
+        long pos = append(key);
+        int base = i * SLOT_BYTES;
+        table.putLong(base, h);
+        table.putLong(base + 16, deviceId);
+        table.putLong(base + 8, pos + 1);
+        size++;
+    }
+
+    private long append(byte[] key) {
+        if (data.remaining() < key.length + 4) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(data.capacity() * 2, data.position() + key.length + 4));
+            data.flip();
+            grown.put(data);
+            data = grown;
+        }
+        int pos = data.position();
+        data.putInt(key.length);
+        data.put(key);
+        return pos;
+    }
+
+    /**
+     * 删除sn
+     */
+    public void remove(String sn) {
+        byte[] key = sn.getBytes(StandardCharsets.UTF_8);
+        long stamp = lock.writeLock();
+        try {
+            removeInternal(key);
+            if (null != pending) {
+                pending.put(sn, -1L);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void removeInternal(byte[] key) {
+        int slot = find(key, hash(key));
+        if (slot >= 0) {
+            table.putLong(slot * SLOT_BYTES + 8, DELETED);
+            size--;
+        }
+    }
+
+    /**
+     * 以新的槽位数量重建哈希表，同时清理已删除的槽位和数据区中无效的sn
+     */
+    private void rehash(int newCapacity) {
+        ByteBuffer oldTable = table;
+        ByteBuffer oldData = data;
+        int oldCapacity = capacity;
+        capacity = newCapacity;
+        table = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+        data = ByteBuffer.allocateDirect(Math.max(oldData.position(), 1024));
+        used = 0;
+        size = 0;
+        for (int i = 0; i < oldCapacity; i++) {
+            long ref = oldTable.getLong(i * SLOT_BYTES + 8);
+            if (ref > EMPTY) {
+                int p = (int) (ref - 1);
+                byte[] key = new byte[oldData.getInt(p)];
+                oldData.get(p + 4, key);
+                putInternal(key, oldTable.getLong(i * SLOT_BYTES + 16));
+            }
+        }
+    }
+
+    /**
+     * 以全量数据替换索引内容(从数据库批量加载时使用)，加载和构建期间不影响读取
+     * 加载期间通过 put/remove 收到的变更记录下来，替换前在新数据上重放
+     *
+     * @param loader 加载全量数据 sn -> 设备ID
+     */
+    public void replaceAll(Supplier<Map<String, Long>> loader) {
+        long stamp = lock.writeLock();
+        try {
+            pending = new LinkedHashMap<>();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        DeviceSnIndex rebuilt = null;
+        try {
+            Map<String, Long> snIds = loader.get();
+            rebuilt = new DeviceSnIndex(snIds.size());
+            for (Map.Entry<String, Long> entry : snIds.entrySet()) {
+                rebuilt.putInternal(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue());
+            }
+        } finally {
+            stamp = lock.writeLock();
+            try {
+                if (null != rebuilt) {
+                    for (Map.Entry<String, Long> entry : pending.entrySet()) {
+                        byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                        if (entry.getValue() < 0) {
+                            rebuilt.removeInternal(key);
+                        } else {
+                            rebuilt.putInternal(key, entry.getValue());
+                        }
+                    }
+                    table = rebuilt.table;
+                    data = rebuilt.data;
+                    capacity = rebuilt.capacity;
+                    used = rebuilt.used;
+                    size = rebuilt.size;
+                }
+                //加载失败时保留原有内容，停止记录变更
+                pending = null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * 索引中的sn数量
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 占用的堆外内存，单位：字节
+     */
+    public long getMemoryBytes() {
+        long stamp = lock.readLock();
+        try {
+            return (long) table.capacity() + data.capacity();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+}
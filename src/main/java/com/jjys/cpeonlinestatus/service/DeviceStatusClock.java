@@ -0,0 +1,71 @@
+package com.jjys.cpeonlinestatus.service;
+
+import com.jjys.cpeonlinestatus.redis.utils.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 设备在线状态时钟
+ * 以Redis服务器时间为基准，定期校准本地时钟偏差，所有节点据此计算一致的时间槽(bitset index)
+ */
+@Slf4j
+public class DeviceStatusClock {
+    //本地时钟与Redis服务器时钟的偏差(Redis时间 - 本地时间)，单位：毫秒
+    private static volatile long clockOffset = 0L;
+
+    /**
+     * 使用Redis TIME 校准本地时钟偏差，扣除一半的往返耗时
+     *
+     * @param maxSkewMillis 允许的最大偏差，超出时记录告警，单位：毫秒
+     */
+    public static void sync(long maxSkewMillis) {
+        try {
+            long begin = System.currentTimeMillis();
+            long serverTime = RedisUtils.getServerTimeMillis();
+            long end = System.currentTimeMillis();
+            long offset = serverTime - (begin + end) / 2;
+            if (Math.abs(offset) > maxSkewMillis) {
+                log.warn("--->本地时钟与Redis时钟偏差过大: {}ms, 允许的最大偏差: {}ms", offset, maxSkewMillis);
+            }
+            clockOffset = offset;
+        } catch (Exception e) {
+            log.warn("--->校准本地时钟偏差异常:", e);
+        }
+    }
+
+    /**
+     * 校准后的当前时间，单位：毫秒
+     */
+    public static long currentTimeMillis() {
+        return System.currentTimeMillis() + clockOffset;
+    }
+
+    /**
+     * 当前时间所在的时间槽: floor(now / slidingTime)
+     *
+     * @param slidingTime 时间槽长度，单位：秒
+     */
+    public static int currentSlot(int slidingTime) {
+        return (int) (currentTimeMillis() / 1000 / slidingTime);
+    }
+
+    /**
+     * 距离下一个时间槽开始的毫秒数
+     *
+     * @param slidingTime 时间槽长度，单位：秒
+     */
+    public static long millisToNextSlot(int slidingTime) {
+        long slotMillis = slidingTime * 1000L;
+        return slotMillis - currentTimeMillis() % slotMillis;
+    }
+
+    /**
+     * 时间槽的结束时间点，单位：毫秒
+     *
+     * @param slot        时间槽
+     * @param slidingTime 时间槽长度，单位：秒
+     */
+    public static long slotEndMillis(int slot, int slidingTime) {
+        return (slot + 1L) * slidingTime * 1000L;
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.jjys.cpeonlinestatus.service;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 当前窗口bitset的脏页记录
+ * 心跳写入后记录被修改的页(每页 PAGE_BYTES 字节)，由定时任务取出后通知其他节点只拉取这些页
+ */
+public class DeviceStatusPageTracker {
+    //页大小，单位：字节
+    public static final int PAGE_BYTES = 4096;
+    //每页包含的位数为 2^PAGE_SHIFT
+    private static final int PAGE_SHIFT = 15;
+
+    private final Set<Long> dirtyPages = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 记录偏移量数组所在的页
+     */
+    public void mark(long[] offsets) {
+        long last = -1;
+        for (long offset : offsets) {
+            long page = offset >>> PAGE_SHIFT;
+            if (page != last) {
+                dirtyPages.add(page);
+                last = page;
+            }
+        }
+    }
+
+    /**
+     * 取出并清空当前记录的全部脏页
+     *
+     * @return 排序后的页号
+     */
+    public long[] drain() {
+        long[] pages = new long[dirtyPages.size()];
+        int n = 0;
+        Iterator<Long> iterator = dirtyPages.iterator();
+        while (iterator.hasNext()) {
+            Long page = iterator.next();
+            iterator.remove();
+            if (n == pages.length) {
+                pages = Arrays.copyOf(pages, n * 2 + 1);
+            }
+            pages[n++] = page;
+        }
+        pages = Arrays.copyOf(pages, n);
+        Arrays.sort(pages);
+        return pages;
+    }
+
+}
@@ -5,6 +5,7 @@ import com.jjys.cpeonlinestatus.bean.bo.DeviceInfoBo;
 import com.jjys.cpeonlinestatus.constant.AutoRegisterConstant;
 import com.jjys.cpeonlinestatus.constant.RedisConstant;
 import com.jjys.cpeonlinestatus.constant.RedisExpireConstant;
+import com.jjys.cpeonlinestatus.enums.DeviceAttribute;
 import com.jjys.cpeonlinestatus.enums.DeviceStatus;
 import com.jjys.cpeonlinestatus.redis.redisson.RedissonCollectionCache;
 import com.jjys.cpeonlinestatus.redis.utils.RedisUtils;
@@ -14,18 +15,33 @@ import com.jjys.cpeonlinestatus.utils.StringUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RBitSet;
+import org.redisson.api.RMapCache;
+import org.redisson.api.RScript;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
 
 /**
  * 保存、获取、管理设备在线状态 调度服务类
@@ -33,7 +49,7 @@ import java.util.concurrent.TimeUnit;
 @RequiredArgsConstructor
 @Slf4j
 @Service
-public class DeviceStatusScheduledService implements InitializingBean {
+public class DeviceStatusScheduledService implements InitializingBean, DisposableBean {
     private static IDeviceInfoService deviceInfoService;
     private static RedissonCollectionCache redissonCollectionCache;
 
@@ -41,109 +57,1827 @@ public class DeviceStatusScheduledService implements InitializingBean {
     private static Integer SCHEDULE_TIME_OFFSET = 1;
     //CPE配置的ID
     private static String CPE_CONFIG_ID;
-    //滑动时间窗口间隔，单位：秒
-    private static Integer SLIDING_TIME;
-    //设备心跳时间间隔，单位：秒
-    private static Integer CPE_HEARTBEAT;
+    //滑动时间窗口间隔，单位：秒(可运行时重新配置)
+    private static volatile Integer SLIDING_TIME;
+    //设备心跳时间间隔(全部心跳类别中最长的)，单位：秒
+    private static volatile Integer CPE_HEARTBEAT;
+    //是否使用Lua脚本写入心跳(单机/主从模式使用；集群模式下脚本内动态key可能跨slot，需关闭后走管道批量写入)
+    private static Boolean SCRIPT_ENABLED = true;
+    //是否开启心跳写入缓冲区(合并短时间内的心跳后批量写入)
+    private static Boolean BUFFER_ENABLED = false;
+    //缓冲区单次刷新的最大数量
+    private static Integer BUFFER_MAX_SIZE = 1000;
+    //缓冲区刷新时间间隔，单位：毫秒
+    private static Long BUFFER_FLUSH_INTERVAL = 5L;
+    //心跳写入缓冲区
+    private static DeviceStatusWriteBuffer writeBuffer;
+    //是否在本地缓存bitset index(由滑动任务通过发布订阅通知刷新)
+    private static Boolean INDEX_CACHE_ENABLED = false;
+    //本地缓存index的定期校验间隔，用于弥补丢失的订阅消息，单位：秒
+    private static Integer INDEX_CACHE_VERIFY_INTERVAL = 5;
+    //本地缓存的bitset index，0 表示尚未加载
+    private static volatile int localBitsetIndex = 0;
+    //是否使用时钟计算bitset index: floor(当前时间 / SLIDING_TIME)，不再依赖Redis中的index和滑动锁
+    private static Boolean CLOCK_INDEX_ENABLED = false;
+    //时钟模式下允许的各节点时钟最大偏差，单位：毫秒
+    private static Long CLOCK_MAX_SKEW = 500L;
+    //时钟模式下校准本地时钟的间隔，单位：秒
+    private static final int CLOCK_SYNC_INTERVAL = 60;
+    //在线状态存储方式：bitset(默认，多窗口bitset) / last_seen(每设备保存最后心跳时间槽) / roaring(按ID范围分段的压缩位图)
+    private static String STORAGE = "bitset";
+    //非默认存储方式的实现，默认bitset存储时为 null
+    private static DeviceStatusStorage storage;
+    //是否开启同一时间槽内的心跳写入去重(需要本地可确定index：时钟模式或开启本地缓存index)
+    private static Boolean DEDUPE_ENABLED = false;
+    //写入去重支持的最大设备ID(不包含)，超出的设备不去重
+    private static Long DEDUPE_CAPACITY = 1L << 24;
+    //心跳写入去重过滤器
+    private static DeviceStatusWriteFilter writeFilter;
+    //离线写入清除其他节点去重标记的通知间隔，单位：毫秒，期间的通知合并后发布
+    private static Long DEDUPE_UNMARK_INTERVAL = 100L;
+    //待发布的清除去重标记的偏移量
+    private static long[] pendingUnmarks = new long[64];
+    private static int pendingUnmarkSize;
+    private static final Object UNMARK_LOCK = new Object();
+    //bitset按设备ID范围分片的位数(每个分片 2^SHARD_BITS 位)，0 表示不分片
+    private static Integer SHARD_BITS = 0;
+    //bitset分片路由
+    private static BitsetShardRouter shardRouter;
+    //是否为设备分配紧凑的偏移量(设备ID为雪花ID等稀疏值时开启)，未开启时直接使用设备ID作为偏移量
+    private static Boolean OFFSET_ENABLED = false;
+    //设备偏移量分配器，未开启时为 null
+    private static DeviceOffsetAllocator offsetAllocator;
+    //回收已删除设备偏移量的间隔，0 表示不回收，单位：秒
+    private static Integer OFFSET_RECLAIM_INTERVAL = 3600;
+    //本节点上次回收的开始时间，为空时(启动后首次)回收全部已删除设备
+    private static Date lastOffsetReclaimTime;
+    //是否开启本地 sn -> 设备ID 索引(按sn查询在线状态时不再读取设备信息缓存)
+    private static Boolean SN_INDEX_ENABLED = false;
+    //sn索引从数据库全量重新加载的间隔，0 表示只在启动时加载，单位：秒
+    private static Integer SN_INDEX_RELOAD_INTERVAL = 3600;
+    //sn -> 设备ID 本地索引，未开启时为 null
+    private static DeviceSnIndex snIndex;
+    //是否开启当前窗口bitset的本地快照(状态查询、在线数量统计、同步任务直接读取本地内存)
+    private static Boolean NEAR_CACHE_ENABLED = false;
+    //本地快照的刷新间隔(滑动后会立即刷新)，单位：秒
+    private static Integer NEAR_CACHE_REFRESH_INTERVAL = 10;
+    //本地快照允许的最大过期时间，超过后查询回退到Redis，单位：秒
+    private static Integer NEAR_CACHE_MAX_STALENESS = 30;
+    //当前窗口bitset的本地快照，未开启或尚未加载时为 null
+    private static volatile DeviceStatusSnapshot snapshot;
+    //是否开启本地快照的脏页增量更新(各节点发布写入修改的页，收到后只拉取这些页)
+    private static Boolean NEAR_CACHE_DELTA_ENABLED = false;
+    //脏页发布间隔，单位：毫秒
+    private static Long NEAR_CACHE_DELTA_INTERVAL = 1000L;
+    //本节点写入修改的脏页记录，未开启增量更新时为 null
+    private static DeviceStatusPageTracker pageTracker;
+    //是否为每个窗口维护在线数量计数器(写入时按位的 0->1 / 1->0 变化增减)，查询在线数量只需一次 GET
+    private static Boolean COUNTER_ENABLED = false;
+    //计数器与 BITCOUNT 结果的校准间隔，单位：秒
+    private static Integer COUNTER_VERIFY_INTERVAL = 60;
+    //是否开启设备属性(厂商、代理商、模型、软件版本)bitset索引
+    private static Boolean ATTR_INDEX_ENABLED = false;
+    //设备属性bitset索引，未开启时为 null
+    private static DeviceAttributeIndex attributeIndex;
+    //是否在每次滑动时汇总各厂商、代理商、模型的在线数量(需开启设备属性bitset索引)
+    private static Boolean ROLLUP_ENABLED = false;
+    //是否使用 countBitsetNum()+1 个固定键组成的环保存窗口bitset(键常驻且预分配长度，滑动时清零复用而不是删除)
+    private static Boolean RING_ENABLED = false;
+    //固定环回收滑出窗口的方式：zero 分段 SETRANGE 清零(保留已分配的内存)；unlink 后台释放后重新预分配
+    private static String RING_RECLAIM = "zero";
+    //固定环预分配的位数，0 表示开启偏移量分配时按已分配的偏移量数量，否则不预分配
+    private static Long RING_CAPACITY = 0L;
+    //默认心跳间隔(不属于任何心跳类别的设备)，单位：秒
+    private static Integer HEARTBEAT_DEFAULT = 1800;
+    //心跳类别配置，格式：心跳间隔:modelId,modelId;心跳间隔:modelId，为空表示所有设备使用默认心跳间隔
+    private static String HEARTBEAT_CLASSES = "";
+    //心跳类别从Redis全量重新加载的间隔，单位：秒
+    private static Integer HEARTBEAT_RELOAD_INTERVAL = 3600;
+    //设备心跳类别，未配置时为 null
+    private static DeviceHeartbeatClasses heartbeatClasses;
+    //非默认心跳类别中最长的心跳间隔，未配置时为 0
+    private static int CLASS_HEARTBEAT_MAX = 0;
+    //窗口配置的代数，每次运行时重新配置后加 1，不同代的bitset使用不同的键前缀
+    private static volatile int BITSET_GENERATION = 0;
+    //滑动任务，运行时重新配置滑动时间后按新的间隔重新调度
+    private static ScheduledFuture<?> slideTask;
 
     private static final String DEVICE_STATUS = "device_status:";
     private static final String BITSET_KEY_PREFIX = DEVICE_STATUS + "bitset_";
     private static final String BITSET_INDEX = DEVICE_STATUS + "bitset_index";
     private static final String BITSET_CHANGE_LOCK = DEVICE_STATUS + "bitset_change_lock";
-    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    //回收偏移量的分布式锁，保证每个间隔只有一个节点执行
+    private static final String OFFSET_RECLAIM_LOCK = DEVICE_STATUS + "offset_reclaim_lock";
+    private static final String BITSET_INDEX_TOPIC = DEVICE_STATUS + "bitset_index_topic";
+    private static final String BITSET_MAX_SHARD = DEVICE_STATUS + "bitset_max_shard";
+    private static final String BITSET_COUNT_PREFIX = DEVICE_STATUS + "bitset_count_";
+    private static final String BITSET_SLIDE_TIME = DEVICE_STATUS + "bitset_slide_time";
+    //固定环中等待清零的窗口index，回收中断(如节点宕机)时由下一次滑动继续完成
+    private static final String BITSET_RING_RECLAIM = DEVICE_STATUS + "bitset_ring_reclaim";
+    private static final String RING_RECLAIM_UNLINK = "unlink";
+    private static final String HEARTBEAT_CLASS_PREFIX = DEVICE_STATUS + "heartbeat_class:";
+    //运行时重新配置后的窗口配置：代数:滑动时间:默认心跳间隔
+    private static final String BITSET_CONFIG = DEVICE_STATUS + "bitset_config";
+    private static final String BITSET_CONFIG_TOPIC = DEVICE_STATUS + "bitset_config_topic";
+    private static final String ATTR_KEY_PREFIX = DEVICE_STATUS + "attr:";
+    private static final String ATTR_AND_TMP = DEVICE_STATUS + "attr_and_tmp";
+    private static final String ROLLUP_KEY_PREFIX = DEVICE_STATUS + "rollup:";
+    private static final String ROLLUP_INDEX = DEVICE_STATUS + "rollup_index";
+    //参与滑动汇总的属性维度
+    private static final DeviceAttribute[] ROLLUP_ATTRIBUTES = {DeviceAttribute.COMPANY, DeviceAttribute.AGENT, DeviceAttribute.MODEL};
+    private static final String LAST_SEEN_KEY = DEVICE_STATUS + "last_seen";
+    private static final String STORAGE_BITSET = "bitset";
+    private static final String STORAGE_LAST_SEEN = "last_seen";
+    private static final String STORAGE_ROARING = "roaring";
+    private static final String ROARING_KEY_PREFIX = DEVICE_STATUS + "roaring_";
+    private static final String SN_INDEX_TOPIC = DEVICE_STATUS + "sn_index_topic";
+    private static final String DIRTY_PAGE_TOPIC = DEVICE_STATUS + "dirty_page_topic";
+    private static final String DEDUPE_UNMARK_TOPIC = DEVICE_STATUS + "dedupe_unmark_topic";
+
+    /**
+     * 心跳写入脚本：在服务端读取当前index，并对 index ~ index+num-1 的bitset设置位
+     * 读取index与写入在同一个脚本内原子执行，避免与滑动任务交错导致写入已删除的bitset
+     * bitset的过期时间由滑动任务创建bitset时统一设置，心跳不再重复 EXPIRE
+     * 同时以窗口配置中的代数作为栅栏：其他节点已运行时重新配置时拒绝写入旧一代的bitset，由调用方切换到新一代后重试
+     * KEYS[1]: bitset index键  KEYS[2]: bitset键前缀  KEYS[3]: 窗口配置键
+     * ARGV[1]: 偏移量  ARGV[2]: 值(0/1)  ARGV[3]: bitset数量  ARGV[4]: 固定环的键数量(0 表示不使用固定环)  ARGV[5]: 调用方的代数
+     * 返回：写入的起始index；-1 表示调用方的代数已过期
+     */
+    private static final String SET_DEVICE_STATUS_SCRIPT =
+            "local config = redis.call('get', KEYS[3]) " +
+            "if config and tonumber(string.match(config, '^%d+')) > tonumber(ARGV[5]) then return -1 end " +
+            "local index = tonumber(redis.call('get', KEYS[1])) " +
+            "if index == nil or index < 1 then index = 1 end " +
+            "local ring = tonumber(ARGV[4]) " +
+            "for i = index, index + tonumber(ARGV[3]) - 1 do " +
+            "local key = KEYS[2] .. (ring > 0 and 'r' .. (i % ring) or i) " +
+            "redis.call('setbit', key, ARGV[1], ARGV[2]) " +
+            "end " +
+            "return index";
+
+    /**
+     * 批量心跳写入脚本：在服务端读取当前index，对每个bitset使用一条 BITFIELD SET u1 设置全部偏移量，代数栅栏同心跳写入脚本
+     * KEYS[1]: bitset index键  KEYS[2]: bitset键前缀  KEYS[3]: 窗口配置键
+     * ARGV[1]: 值(0/1)  ARGV[2]: bitset数量  ARGV[3]: 固定环的键数量(0 表示不使用固定环)  ARGV[4]: 调用方的代数  ARGV[5...]: 偏移量
+     * 返回：写入的起始index；-1 表示调用方的代数已过期
+     */
+    private static final String SET_DEVICE_STATUS_BATCH_SCRIPT =
+            "local config = redis.call('get', KEYS[3]) " +
+            "if config and tonumber(string.match(config, '^%d+')) > tonumber(ARGV[4]) then return -1 end " +
+            "local index = tonumber(redis.call('get', KEYS[1])) " +
+            "if index == nil or index < 1 then index = 1 end " +
+            "local ring = tonumber(ARGV[3]) " +
+            "local args = {} " +
+            "for j = 5, #ARGV do " +
+            "args[#args + 1] = 'SET' args[#args + 1] = 'u1' args[#args + 1] = ARGV[j] args[#args + 1] = ARGV[1] " +
+            "end " +
+            "for i = index, index + tonumber(ARGV[2]) - 1 do " +
+            "local key = KEYS[2] .. (ring > 0 and 'r' .. (i % ring) or i) " +
+            "redis.call('bitfield', key, unpack(args)) " +
+            "end " +
+            "return index";
+    /**
+     * 计数写入脚本：对每个bitset使用一条 BITFIELD SET u1 设置全部偏移量，按返回的旧值统计发生变化的位数并增减对应窗口的计数器
+     * index由客户端确定，写入恰好落在bitset被滑动删除之后时会重新创建键：bitset没有过期时间时设置过期时间，避免永久残留
+     * 计数器没有过期时间时，使用对应bitset的剩余过期时间
+     * KEYS[2i-1]: bitset键  KEYS[2i]: 计数器键
+     * ARGV[1]: 值(0/1)  ARGV[2]: bitset过期时间(秒，0 表示不设置)  ARGV[3...]: 偏移量
+     */
+    private static final String SET_DEVICE_STATUS_COUNTED_SCRIPT =
+            "local args = {} " +
+            "for j = 3, #ARGV do " +
+            "args[#args + 1] = 'SET' args[#args + 1] = 'u1' args[#args + 1] = ARGV[j] args[#args + 1] = ARGV[1] " +
+            "end " +
+            "local value = tonumber(ARGV[1]) " +
+            "local total = 0 " +
+            "for i = 1, #KEYS, 2 do " +
+            "local olds = redis.call('bitfield', KEYS[i], unpack(args)) " +
+            "if tonumber(ARGV[2]) > 0 and redis.call('pttl', KEYS[i]) == -1 then redis.call('expire', KEYS[i], ARGV[2]) end " +
+            "local changed = 0 " +
+            "for _, old in ipairs(olds) do if old ~= value then changed = changed + 1 end end " +
+            "if changed > 0 then " +
+            "redis.call('incrby', KEYS[i + 1], value == 1 and changed or -changed) " +
+            "if redis.call('pttl', KEYS[i + 1]) == -1 then " +
+            "local ttl = redis.call('pttl', KEYS[i]) " +
+            "if ttl > 0 then redis.call('pexpire', KEYS[i + 1], ttl) end " +
+            "end " +
+            "end " +
+            "total = total + changed " +
+            "end " +
+            "return total";
+
+    /**
+     * 计数器校准脚本：统计一个窗口全部bitset(分片)的 BITCOUNT 之和写入计数器，并沿用bitset的剩余过期时间
+     * KEYS[1]: 计数器键  KEYS[2...]: bitset键
+     */
+    private static final String VERIFY_COUNTER_SCRIPT =
+            "local count = 0 " +
+            "for i = 2, #KEYS do count = count + redis.call('bitcount', KEYS[i]) end " +
+            "redis.call('set', KEYS[1], count) " +
+            "local ttl = redis.call('pttl', KEYS[2]) " +
+            "if ttl > 0 then redis.call('pexpire', KEYS[1], ttl) end " +
+            "return count";
+
+    /**
+     * 属性在线数量统计脚本：属性bitset与窗口bitset按位与写入临时键，统计后删除临时键(脚本内原子执行，临时键不会被并发覆盖)
+     * KEYS[1]: 临时键  KEYS[2]: 属性bitset键  KEYS[3]: 窗口bitset键
+     */
+    private static final String COUNT_ATTR_ONLINE_SCRIPT =
+            "redis.call('bitop', 'and', KEYS[1], KEYS[2], KEYS[3]) " +
+            "local count = redis.call('bitcount', KEYS[1]) " +
+            "redis.call('del', KEYS[1]) " +
+            "return count";
+
+    /**
+     * 滑动脚本：在一次原子操作内完成 index校验 + index滑动 + 旧窗口回收 + 新窗口创建
+     * 以当前index作为栅栏(fencing token)：调用方读取的index与服务端不一致说明已被其他节点滑动过，直接放弃
+     * 同时记录每次滑动的服务端时间，距上次滑动不足最小间隔时同样放弃，保证锁过期(如GC停顿)时也不会重复滑动
+     * 距上次滑动超过多个调度间隔(节点全部停机或调度线程阻塞)时按错过的次数一次滑动多步，最多滑动窗口内bitset数量步，
+     * 跳过的窗口一并回收，恢复后不再有设备因旧窗口未滑出而多保持若干个窗口的在线状态
+     * KEYS[1]: bitset index键  KEYS[2]: 上次滑动时间键  KEYS[3]: bitset键前缀  KEYS[4]: 计数器键前缀
+     * ARGV[1]: 调用方读取的index  ARGV[2]: 最小滑动间隔(毫秒)  ARGV[3]: 分片数量(0 表示不分片)
+     * ARGV[4]: 旧窗口保留时间(毫秒，0 表示立即 UNLINK)  ARGV[5]: 窗口内bitset数量  ARGV[6]: 新窗口bitset过期时间(秒)
+     * ARGV[7]: 固定环的键数量(0 表示不使用固定环；使用固定环时bitset键常驻，脚本内不创建，最后一个滑出窗口的键由调用方分段清零，
+     * 多步滑动时其余滑出窗口的键在滑动后立即作为最新的窗口写入，在脚本内与index滑动一并 UNLINK)
+     * ARGV[8]: 调度间隔(毫秒)，用于计算错过的滑动次数
+     * ARGV[9]: 是否创建新窗口的bitset(1 创建；0 表示在线状态不使用bitset存储，只滑动index)
+     * 返回：滑动后的index；-1 表示index已变化；-2 表示距上次滑动不足最小间隔
+     */
+    private static final String SLIDE_SCRIPT =
+            "if redis.replicate_commands then redis.replicate_commands() end " +
+            "local index = tonumber(redis.call('get', KEYS[1])) " +
+            "if index == nil or index < 1 then index = 1 end " +
+            "if index ~= tonumber(ARGV[1]) then return -1 end " +
+            "local time = redis.call('time') " +
+            "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) " +
+            "local last = tonumber(redis.call('get', KEYS[2])) " +
+            "if last ~= nil and now - last < tonumber(ARGV[2]) then return -2 end " +
+            "local steps = 1 " +
+            "if last ~= nil then steps = math.floor((now - last) / tonumber(ARGV[8])) end " +
+            "steps = math.max(1, math.min(steps, tonumber(ARGV[5]))) " +
+            "redis.call('set', KEYS[1], index + steps) " +
+            "redis.call('set', KEYS[2], now) " +
+            "local shards = tonumber(ARGV[3]) " +
+            "local retain = tonumber(ARGV[4]) " +
+            "local ring = tonumber(ARGV[7]) " +
+            "local function keys(i) " +
+            "local name = ring > 0 and 'r' .. (i % ring) or i " +
+            "if shards == 0 then return {KEYS[3] .. name} end " +
+            "local list = {} for s = 0, shards - 1 do list[#list + 1] = KEYS[3] .. name .. ':' .. s end return list " +
+            "end " +
+            "for k = index, index + steps - 1 do " +
+            "local old = ring > 0 and {} or keys(k) " +
+            "old[#old + 1] = KEYS[4] .. k " +
+            "for _, key in ipairs(old) do " +
+            "if retain > 0 then redis.call('pexpire', key, retain) else redis.call('unlink', key) end " +
+            "end " +
+            "end " +
+            "if ring > 0 then " +
+            "for k = index, index + steps - 2 do " +
+            "for _, key in ipairs(keys(k)) do redis.call('unlink', key) end " +
+            "end " +
+            "end " +
+            "if ring == 0 and ARGV[9] == '1' then " +
+            "for i = index + steps, index + steps + tonumber(ARGV[5]) - 1 do " +
+            "for _, key in ipairs(keys(i)) do " +
+            "redis.call('bitfield', key, 'INCRBY', 'u1', 0, 0) " +
+            "redis.call('expire', key, ARGV[6]) " +
+            "end " +
+            "end " +
+            "end " +
+            "return index + steps";
+
+    /**
+     * 重新配置切换脚本：index未被滑动时，原子设置 新index + 新窗口配置 + 滑动时间，读写方随后切换到新一代的bitset
+     * KEYS[1]: bitset index键  KEYS[2]: 窗口配置键  KEYS[3]: 上次滑动时间键
+     * ARGV[1]: 调用方读取的index  ARGV[2]: 新index  ARGV[3]: 新窗口配置
+     * 返回：1 切换成功；-1 表示index已变化
+     */
+    private static final String SWITCH_CONFIG_SCRIPT =
+            "if redis.replicate_commands then redis.replicate_commands() end " +
+            "local index = tonumber(redis.call('get', KEYS[1])) " +
+            "if index == nil or index < 1 then index = 1 end " +
+            "if index ~= tonumber(ARGV[1]) then return -1 end " +
+            "local time = redis.call('time') " +
+            "redis.call('set', KEYS[1], ARGV[2]) " +
+            "redis.call('set', KEYS[2], ARGV[3]) " +
+            "redis.call('set', KEYS[3], tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)) " +
+            "return 1";
+
+    //批量写入时单次脚本/命令包含的最大偏移量数量，避免单条命令过大阻塞Redis
+    private static final int BATCH_CHUNK_SIZE = 1000;
+    //固定环清零时单条 SETRANGE 的字节数，避免单条命令长时间占用Redis主线程
+    private static final int RING_ZERO_CHUNK_BYTES = 1 << 20;
+
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    //异步接口中需要阻塞执行的操作(如查询数据库)使用的线程池
+    private static final ExecutorService asyncExecutor = Executors.newCachedThreadPool();
 
     @Value("${cpe.config.id}")
     public void setCpeConfigId(String cpeConfigId) {
         CPE_CONFIG_ID = cpeConfigId;
     }
 
-    @Value("${device_status.sliding_time}")
-    public void setSlidingTime(Integer slidingTime) {
-        SLIDING_TIME = slidingTime;
+    @Value("${device_status.sliding_time}")
+    public void setSlidingTime(Integer slidingTime) {
+        SLIDING_TIME = slidingTime;
+    }
+
+    @Value("${device_status.script_enabled:true}")
+    public void setScriptEnabled(Boolean scriptEnabled) {
+        SCRIPT_ENABLED = scriptEnabled;
+    }
+
+    @Value("${device_status.buffer.enabled:false}")
+    public void setBufferEnabled(Boolean bufferEnabled) {
+        BUFFER_ENABLED = bufferEnabled;
+    }
+
+    @Value("${device_status.buffer.max_size:1000}")
+    public void setBufferMaxSize(Integer bufferMaxSize) {
+        BUFFER_MAX_SIZE = bufferMaxSize;
+    }
+
+    @Value("${device_status.buffer.flush_interval:5}")
+    public void setBufferFlushInterval(Long bufferFlushInterval) {
+        BUFFER_FLUSH_INTERVAL = bufferFlushInterval;
+    }
+
+    @Value("${device_status.index_cache.enabled:false}")
+    public void setIndexCacheEnabled(Boolean indexCacheEnabled) {
+        INDEX_CACHE_ENABLED = indexCacheEnabled;
+    }
+
+    @Value("${device_status.index_cache.verify_interval:5}")
+    public void setIndexCacheVerifyInterval(Integer indexCacheVerifyInterval) {
+        INDEX_CACHE_VERIFY_INTERVAL = indexCacheVerifyInterval;
+    }
+
+    @Value("${device_status.clock_index.enabled:false}")
+    public void setClockIndexEnabled(Boolean clockIndexEnabled) {
+        CLOCK_INDEX_ENABLED = clockIndexEnabled;
+    }
+
+    @Value("${device_status.clock_index.max_skew:500}")
+    public void setClockMaxSkew(Long clockMaxSkew) {
+        CLOCK_MAX_SKEW = clockMaxSkew;
+    }
+
+    @Value("${device_status.storage:bitset}")
+    public void setStorage(String storage) {
+        STORAGE = storage;
+    }
+
+    @Value("${device_status.dedupe.enabled:false}")
+    public void setDedupeEnabled(Boolean dedupeEnabled) {
+        DEDUPE_ENABLED = dedupeEnabled;
+    }
+
+    @Value("${device_status.dedupe.capacity:16777216}")
+    public void setDedupeCapacity(Long dedupeCapacity) {
+        DEDUPE_CAPACITY = dedupeCapacity;
+    }
+
+    @Value("${device_status.dedupe.unmark_interval:100}")
+    public void setDedupeUnmarkInterval(Long dedupeUnmarkInterval) {
+        DEDUPE_UNMARK_INTERVAL = dedupeUnmarkInterval;
+    }
+
+    @Value("${device_status.shard_bits:0}")
+    public void setShardBits(Integer shardBits) {
+        SHARD_BITS = shardBits;
+    }
+
+    @Value("${device_status.offset.enabled:false}")
+    public void setOffsetEnabled(Boolean offsetEnabled) {
+        OFFSET_ENABLED = offsetEnabled;
+    }
+
+    @Value("${device_status.offset.reclaim_interval:3600}")
+    public void setOffsetReclaimInterval(Integer offsetReclaimInterval) {
+        OFFSET_RECLAIM_INTERVAL = offsetReclaimInterval;
+    }
+
+    @Value("${device_status.sn_index.enabled:false}")
+    public void setSnIndexEnabled(Boolean snIndexEnabled) {
+        SN_INDEX_ENABLED = snIndexEnabled;
+    }
+
+    @Value("${device_status.sn_index.reload_interval:3600}")
+    public void setSnIndexReloadInterval(Integer snIndexReloadInterval) {
+        SN_INDEX_RELOAD_INTERVAL = snIndexReloadInterval;
+    }
+
+    @Value("${device_status.near_cache.enabled:false}")
+    public void setNearCacheEnabled(Boolean nearCacheEnabled) {
+        NEAR_CACHE_ENABLED = nearCacheEnabled;
+    }
+
+    @Value("${device_status.near_cache.refresh_interval:10}")
+    public void setNearCacheRefreshInterval(Integer nearCacheRefreshInterval) {
+        NEAR_CACHE_REFRESH_INTERVAL = nearCacheRefreshInterval;
+    }
+
+    @Value("${device_status.near_cache.max_staleness:30}")
+    public void setNearCacheMaxStaleness(Integer nearCacheMaxStaleness) {
+        NEAR_CACHE_MAX_STALENESS = nearCacheMaxStaleness;
+    }
+
+    @Value("${device_status.near_cache.delta.enabled:false}")
+    public void setNearCacheDeltaEnabled(Boolean nearCacheDeltaEnabled) {
+        NEAR_CACHE_DELTA_ENABLED = nearCacheDeltaEnabled;
+    }
+
+    @Value("${device_status.near_cache.delta.interval:1000}")
+    public void setNearCacheDeltaInterval(Long nearCacheDeltaInterval) {
+        NEAR_CACHE_DELTA_INTERVAL = nearCacheDeltaInterval;
+    }
+
+    @Value("${device_status.counter.enabled:false}")
+    public void setCounterEnabled(Boolean counterEnabled) {
+        COUNTER_ENABLED = counterEnabled;
+    }
+
+    @Value("${device_status.counter.verify_interval:60}")
+    public void setCounterVerifyInterval(Integer counterVerifyInterval) {
+        COUNTER_VERIFY_INTERVAL = counterVerifyInterval;
+    }
+
+    @Value("${device_status.attr_index.enabled:false}")
+    public void setAttrIndexEnabled(Boolean attrIndexEnabled) {
+        ATTR_INDEX_ENABLED = attrIndexEnabled;
+    }
+
+    @Value("${device_status.rollup.enabled:false}")
+    public void setRollupEnabled(Boolean rollupEnabled) {
+        ROLLUP_ENABLED = rollupEnabled;
+    }
+
+    @Value("${device_status.ring.enabled:false}")
+    public void setRingEnabled(Boolean ringEnabled) {
+        RING_ENABLED = ringEnabled;
+    }
+
+    @Value("${device_status.ring.reclaim:zero}")
+    public void setRingReclaim(String ringReclaim) {
+        RING_RECLAIM = ringReclaim;
+    }
+
+    @Value("${device_status.ring.capacity:0}")
+    public void setRingCapacity(Long ringCapacity) {
+        RING_CAPACITY = ringCapacity;
+    }
+
+    @Value("${device_status.heartbeat.default:1800}")
+    public void setHeartbeatDefault(Integer heartbeatDefault) {
+        HEARTBEAT_DEFAULT = heartbeatDefault;
+    }
+
+    @Value("${device_status.heartbeat.classes:}")
+    public void setHeartbeatClasses(String heartbeatClasses) {
+        HEARTBEAT_CLASSES = heartbeatClasses;
+    }
+
+    @Value("${device_status.heartbeat.reload_interval:3600}")
+    public void setHeartbeatReloadInterval(Integer heartbeatReloadInterval) {
+        HEARTBEAT_RELOAD_INTERVAL = heartbeatReloadInterval;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!CLOCK_INDEX_ENABLED && STORAGE_BITSET.equals(STORAGE)) {
+            //运行时重新配置过滑动时间或心跳间隔时以Redis中的配置为准，保证重启的节点与其他节点一致
+            String config = getBitsetConfig();
+            if (null != config) {
+                String[] parts = config.split(":");
+                BITSET_GENERATION = Integer.parseInt(parts[0]);
+                SLIDING_TIME = Integer.parseInt(parts[1]);
+                HEARTBEAT_DEFAULT = Integer.parseInt(parts[2]);
+                log.info("--->使用运行时重新配置的窗口配置:{}", config);
+            }
+        }
+        Map<Integer, List<Long>> classModels = DeviceHeartbeatClasses.parse(HEARTBEAT_CLASSES);
+        if (!classModels.isEmpty() && !STORAGE_BITSET.equals(STORAGE)) {
+            classModels.clear();
+            log.warn("--->心跳类别只支持bitset存储方式, 已忽略");
+        }
+        //所有窗口共用一个环，窗口数量按最长的心跳间隔计算，各类别设备只写入与自身心跳间隔对应数量的窗口
+        for (Integer heartbeat : classModels.keySet()) {
+            CLASS_HEARTBEAT_MAX = Math.max(CLASS_HEARTBEAT_MAX, heartbeat);
+        }
+        CPE_HEARTBEAT = Math.max(HEARTBEAT_DEFAULT, CLASS_HEARTBEAT_MAX);
+        log.info("--->CPE心跳间隔为:{}", CPE_HEARTBEAT);
+
+        if (OFFSET_ENABLED) {
+            offsetAllocator = new DeviceOffsetAllocator(DEVICE_STATUS);
+            offsetAllocator.start();
+            if (OFFSET_RECLAIM_INTERVAL > 0) {
+                scheduler.scheduleWithFixedDelay(DeviceStatusScheduledService::reclaimDeletedDeviceOffsets,
+                        OFFSET_RECLAIM_INTERVAL, OFFSET_RECLAIM_INTERVAL, TimeUnit.SECONDS);
+            }
+            log.info("--->设备紧凑偏移量分配已开启, 回收间隔:{}s", OFFSET_RECLAIM_INTERVAL);
+        }
+        if (RING_ENABLED && (CLOCK_INDEX_ENABLED || !STORAGE_BITSET.equals(STORAGE))) {
+            RING_ENABLED = false;
+            log.warn("--->固定环只支持bitset存储方式且未开启时钟模式, 已忽略");
+        }
+        shardRouter = createShardRouter(BITSET_GENERATION, countBitsetNum());
+        if (shardRouter.isEnabled()) {
+            log.info("--->bitset按设备ID范围分片已开启, 每个分片:2^{}位", SHARD_BITS);
+        }
+        if (RING_ENABLED) {
+            log.info("--->窗口bitset固定环已开启, 键数量:{}, 回收方式:{}", shardRouter.getRingSize(), RING_RECLAIM);
+        }
+        if (STORAGE_LAST_SEEN.equals(STORAGE)) {
+            storage = new LastSeenDeviceStatusStorage(LAST_SEEN_KEY);
+        } else if (STORAGE_ROARING.equals(STORAGE)) {
+            storage = new RoaringDeviceStatusStorage(ROARING_KEY_PREFIX);
+        }
+        log.info("--->设备在线状态存储方式为:{}", STORAGE);
+
+        if (CLOCK_INDEX_ENABLED) {
+            //时钟模式：以Redis时间校准本地时钟，调度任务对齐到每个时间槽的开始
+            DeviceStatusClock.sync(CLOCK_MAX_SKEW);
+            scheduler.scheduleWithFixedDelay(() -> DeviceStatusClock.sync(CLOCK_MAX_SKEW),
+                    CLOCK_SYNC_INTERVAL, CLOCK_SYNC_INTERVAL, TimeUnit.SECONDS);
+            scheduler.scheduleAtFixedRate(DeviceStatusScheduledService::expireAndCreateBitsetWithLock,
+                    DeviceStatusClock.millisToNextSlot(SLIDING_TIME) + SCHEDULE_TIME_OFFSET * 1000L,
+                    SLIDING_TIME * 1000L,
+                    TimeUnit.MILLISECONDS);
+            log.info("--->时钟模式bitset index已开启, 时间槽长度为:{}", SLIDING_TIME);
+        } else {
+            //定时调度任务，用于滑动时间窗口
+            scheduleSlideTask();
+            log.info("--->滑动时间窗口间隔为:{}", SLIDING_TIME);
+            if (STORAGE_BITSET.equals(STORAGE)) {
+                //其他节点运行时重新配置后切换到新一代的bitset
+                RedisUtils.subscribe(BITSET_CONFIG_TOPIC, String.class, DeviceStatusScheduledService::applyBitsetConfig);
+            }
+            //在线状态不使用bitset存储时不创建bitset
+            if (null == storage) {
+                try {
+                    if (RING_ENABLED) {
+                        //固定环的键常驻，启动时预分配长度
+                        presizeRing(getBitsetIndex(), shardRouter.getRingSize());
+                    } else {
+                        //启动时补充创建当前窗口的bitset，保证心跳写入的bitset均已设置过期时间
+                        createBitsets(getBitsetIndex());
+                    }
+                } catch (Exception e) {
+                    log.warn("--->创建当前窗口的bitset异常:", e);
+                }
+            }
+        }
+
+        if (INDEX_CACHE_ENABLED && !CLOCK_INDEX_ENABLED) {
+            //订阅滑动任务发布的新index，并定期从Redis校验本地缓存
+            RedisUtils.subscribe(BITSET_INDEX_TOPIC, Integer.class, index -> localBitsetIndex = index);
+            scheduler.scheduleWithFixedDelay(DeviceStatusScheduledService::refreshLocalBitsetIndex,
+                    0, INDEX_CACHE_VERIFY_INTERVAL, TimeUnit.SECONDS);
+            log.info("--->本地缓存bitset index已开启, 校验间隔:{}s", INDEX_CACHE_VERIFY_INTERVAL);
+        }
+
+        if (DEDUPE_ENABLED) {
+            if (CLOCK_INDEX_ENABLED || INDEX_CACHE_ENABLED) {
+                writeFilter = new DeviceStatusWriteFilter(DEDUPE_CAPACITY);
+                //其他节点写入离线状态时清除本节点的去重标记
+                RedisUtils.subscribe(DEDUPE_UNMARK_TOPIC, String.class, message -> {
+                    for (String offset : message.split(",")) {
+                        writeFilter.unmark(Long.parseLong(offset));
+                    }
+                });
+                scheduler.scheduleWithFixedDelay(DeviceStatusScheduledService::publishPendingUnmarks,
+                        DEDUPE_UNMARK_INTERVAL, DEDUPE_UNMARK_INTERVAL, TimeUnit.MILLISECONDS);
+                log.info("--->心跳写入去重已开启, 设备ID范围:[0, {})", DEDUPE_CAPACITY);
+            } else {
+                log.warn("--->心跳写入去重需要在时钟模式或开启本地缓存index时使用, 已忽略");
+            }
+        }
+
+        if (COUNTER_ENABLED) {
+            if (null != storage || CLOCK_INDEX_ENABLED) {
+                COUNTER_ENABLED = false;
+                log.warn("--->在线数量计数器只支持bitset存储方式且未开启时钟模式, 已忽略");
+            } else {
+                scheduler.scheduleWithFixedDelay(DeviceStatusScheduledService::verifyOnlineCounter,
+                        COUNTER_VERIFY_INTERVAL, COUNTER_VERIFY_INTERVAL, TimeUnit.SECONDS);
+                log.info("--->在线数量计数器已开启, 校准间隔:{}s", COUNTER_VERIFY_INTERVAL);
+            }
+        }
+
+        if (ATTR_INDEX_ENABLED) {
+            attributeIndex = new DeviceAttributeIndex(ATTR_KEY_PREFIX);
+            log.info("--->设备属性bitset索引已开启");
+        }
+        if (ROLLUP_ENABLED && (null == attributeIndex || null != storage)) {
+            ROLLUP_ENABLED = false;
+            log.warn("--->滑动汇总在线数量需要开启设备属性bitset索引并使用bitset存储方式, 已忽略");
+        }
+
+        if (!classModels.isEmpty()) {
+            heartbeatClasses = new DeviceHeartbeatClasses(HEARTBEAT_CLASS_PREFIX, HEARTBEAT_DEFAULT, classModels);
+            heartbeatClasses.start();
+            if (heartbeatClasses.isEmpty()) {
+                //首次开启时从数据库按型号生成各类别的成员
+                scheduler.execute(DeviceStatusScheduledService::rebuildHeartbeatClasses);
+            }
+            scheduler.scheduleWithFixedDelay(heartbeatClasses::reload,
+                    HEARTBEAT_RELOAD_INTERVAL, HEARTBEAT_RELOAD_INTERVAL, TimeUnit.SECONDS);
+            for (int heartbeat : heartbeatClasses.getHeartbeats()) {
+                log.info("--->心跳类别:{}s, 写入窗口数量:{}", heartbeat, countBitsetNum(heartbeat));
+            }
+        }
+
+        if (SN_INDEX_ENABLED) {
+            snIndex = new DeviceSnIndex();
+            //先订阅再加载，加载期间收到的变更在加载完成后重放，不会被加载前查询到的数据覆盖
+            RedisUtils.subscribe(SN_INDEX_TOPIC, String.class, DeviceStatusScheduledService::applySnIndexChange);
+            if (SN_INDEX_RELOAD_INTERVAL > 0) {
+                scheduler.scheduleWithFixedDelay(DeviceStatusScheduledService::reloadSnIndex,
+                        0, SN_INDEX_RELOAD_INTERVAL, TimeUnit.SECONDS);
+            } else {
+                scheduler.execute(DeviceStatusScheduledService::reloadSnIndex);
+            }
+            log.info("--->本地sn索引已开启, 重新加载间隔:{}s", SN_INDEX_RELOAD_INTERVAL);
+        }
+
+        if (NEAR_CACHE_ENABLED) {
+            if (null != storage || (SHARD_BITS > 0 && SHARD_BITS < 3)) {
+                log.warn("--->本地快照只支持bitset存储方式(分片位数不小于3), 已忽略");
+            } else {
+                //每秒检查一次：index变化(已滑动)或超过刷新间隔时重新拉取
+                scheduler.scheduleWithFixedDelay(DeviceStatusScheduledService::refreshSnapshot, 0, 1, TimeUnit.SECONDS);
+                log.info("--->本地快照已开启, 刷新间隔:{}s, 最大过期时间:{}s", NEAR_CACHE_REFRESH_INTERVAL, NEAR_CACHE_MAX_STALENESS);
+                if (NEAR_CACHE_DELTA_ENABLED) {
+                    pageTracker = new DeviceStatusPageTracker();
+                    RedisUtils.subscribe(DIRTY_PAGE_TOPIC, String.class,
+                            message -> asyncExecutor.execute(() -> applyDirtyPages(message)));
+                    scheduler.scheduleWithFixedDelay(DeviceStatusScheduledService::publishDirtyPages,
+                            NEAR_CACHE_DELTA_INTERVAL, NEAR_CACHE_DELTA_INTERVAL, TimeUnit.MILLISECONDS);
+                    log.info("--->本地快照脏页增量更新已开启, 发布间隔:{}ms", NEAR_CACHE_DELTA_INTERVAL);
+                }
+            }
+        }
+
+        if (BUFFER_ENABLED) {
+            writeBuffer = new DeviceStatusWriteBuffer(BUFFER_MAX_SIZE, BUFFER_FLUSH_INTERVAL,
+                    DeviceStatusScheduledService::writeMarkedDeviceStatus);
+            writeBuffer.start();
+            log.info("--->心跳写入缓冲区已开启, 最大批量:{}, 刷新间隔:{}ms", BUFFER_MAX_SIZE, BUFFER_FLUSH_INTERVAL);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        //停止时将缓冲区内的心跳全部写入
+        if (null != writeBuffer) {
+            writeBuffer.shutdown();
+        }
+        if (null != writeFilter) {
+            publishPendingUnmarks();
+        }
+        asyncExecutor.shutdown();
+    }
+
+    /**
+     * 过期删除正在使用的bitset 并滚动创建新的bitset
+     * 使用Redis分布式锁来确保只有一个微服务节点执行expireAndCreateBitsetWithLock任务
+     */
+    private static void expireAndCreateBitsetWithLock() {
+        try {
+            if (CLOCK_INDEX_ENABLED) {
+                //时钟模式：bitset按时间槽自动过期，只需每个时间槽由一个节点同步在线状态到Sql中
+                int slot = DeviceStatusClock.currentSlot(SLIDING_TIME);
+                if (RedisUtils.setObjectIfAbsent(BITSET_CHANGE_LOCK + ":" + slot, "Bitset_Change_Locked", Duration.ofSeconds(SLIDING_TIME))) {
+                    //上一个时间槽已不再写入，汇总其在线数量(开启汇总时其bitset多保留一个时间槽，此时尚未过期)
+                    rollupOnlineCount(slot - 1);
+                    if (null != storage) storage.slide(slot);
+                    syncDeviceStatusToSql();
+                }
+                return;
+            }
+            if (null == storage) {
+                //补偿可能丢失的重新配置通知
+                reloadBitsetConfig();
+            }
+            boolean lockAcquired = getBitsetChangeLock();
+//            log.info("--->过期删除正在使用的bitset 并滚动创建新的bitset 分布式lock = " + lockAcquired);
+            if (lockAcquired) {
+                if (RING_ENABLED && null == storage) {
+                    //上一次回收被中断时先完成清零，保证即将写入的固定键中没有残留的位
+                    String pending = RedisUtils.getCacheObject(BITSET_RING_RECLAIM);
+                    if (null != pending) {
+                        String[] range = pending.split(":");
+                        reclaimRingSlots(Integer.parseInt(range[0]), Integer.parseInt(range[1]));
+                    }
+                }
+                int currentIndex = getBitsetIndex();
+                if (SCRIPT_ENABLED) {
+                    //一次原子脚本完成滑动，index已被其他节点滑动时放弃本次滑动
+                    int newIndex = slideBitsetIndexAtomic(currentIndex);
+                    if (newIndex < 0) return;
+                    //多步滑动时汇总最后一个滑出的窗口(固定环中其余滑出窗口的键已在脚本内 UNLINK)
+                    rollupOnlineCount(getRollupIndex(currentIndex, newIndex - currentIndex));
+                    if (RING_ENABLED && null == storage) {
+                        //其余滑出窗口的键已在脚本内 UNLINK，重新预分配长度后只需回收最后一个
+                        if (newIndex - currentIndex > 1) presizeRing(currentIndex, newIndex - currentIndex - 1);
+                        reclaimRingSlots(newIndex - 1, newIndex);
+                    }
+                    if (null != storage) storage.slide(newIndex);
+                } else {
+                    //错过调度时一次滑动多步，跳过的窗口一并回收
+                    int steps = getCatchUpSteps();
+                    slideBitsetIndex(steps);
+                    //滑动后旧的bitset已不再写入，删除前汇总最后一个滑出窗口的在线数量(与滑动脚本一致)
+                    rollupOnlineCount(getRollupIndex(currentIndex, steps));
+                    List<String> expiredKeys = new ArrayList<>();
+                    for (int i = currentIndex; i < currentIndex + steps; i++) {
+                        if (!RING_ENABLED && null == storage) expiredKeys.addAll(shardRouter.keys(i));
+                        expiredKeys.add(BITSET_COUNT_PREFIX + i);
+                    }
+                    //滑动bitset的index之后 再一次性过期处理滑出的bitset(全部分片)
+                    RedisUtils.deleteObject(expiredKeys);
+                    if (null != storage) {
+                        //在线状态不使用bitset存储，不创建bitset
+                        storage.slide(currentIndex + steps);
+                    } else if (RING_ENABLED) {
+                        reclaimRingSlots(currentIndex, currentIndex + steps);
+                    } else {
+                        //创建新窗口的bitset并统一设置过期时间
+                        createBitsets(currentIndex + steps);
+                    }
+                }
+                //同步在线状态到Sql中
+                syncDeviceStatusToSql();
+//                log.info("--->过期Bitset的key键名称: {}", bitsetKeyToExpire);
+            }
+        } catch (Exception e) {
+            log.warn("--->过期删除正在使用的bitset 并滚动创建新的bitset 异常:", e);
+        }
+    }
+
+    /**
+     * 以滑动脚本原子滑动index(单机/主从模式使用)
+     * 开启滑动汇总时旧窗口保留一个滑动时间供汇总读取，否则立即 UNLINK
+     *
+     * @param currentIndex 滑动前读取的index，作为栅栏与服务端的index比对
+     * @return 滑动后的index，滑动被拒绝时返回 -1
+     */
+    private static int slideBitsetIndexAtomic(int currentIndex) {
+        long shards = shardRouter.isEnabled() ? shardRouter.loadMaxShard() + 1 : 0;
+        long retain = ROLLUP_ENABLED ? SLIDING_TIME * 1000L : 0;
+        Long result = RedisUtils.evalScript(SLIDE_SCRIPT, RScript.ReturnType.INTEGER,
+                Arrays.asList(BITSET_INDEX, BITSET_SLIDE_TIME, shardRouter.getKeyPrefix(), BITSET_COUNT_PREFIX),
+                currentIndex, SLIDING_TIME * 900L, shards, retain, countBitsetNum(),
+                RedisExpireConstant.deviceStatusBitsetExpirationTime, shardRouter.getRingSize(), getSchedulePeriodMillis(),
+                null == storage ? 1 : 0);
+        if (result < 0) {
+            log.warn("--->滑动bitset的index被拒绝({}), 读取的index:{}", result == -1 ? "index已变化" : "距上次滑动不足最小间隔", currentIndex);
+            return -1;
+        }
+        int newIndex = result.intValue();
+        if (newIndex > currentIndex + 1) {
+            log.warn("--->距上次滑动超过多个调度间隔, 补充滑动{}步, index:{} -> {}", newIndex - currentIndex, currentIndex, newIndex);
+        }
+        if (INDEX_CACHE_ENABLED) {
+            //通知所有节点刷新本地缓存的index
+            RedisUtils.publish(BITSET_INDEX_TOPIC, newIndex, index -> localBitsetIndex = index);
+        }
+        return newIndex;
+    }
+
+    /**
+     * 滑动任务的调度间隔，单位：毫秒
+     */
+    private static long getSchedulePeriodMillis() {
+        return (SLIDING_TIME + SCHEDULE_TIME_OFFSET) * 1000L;
+    }
+
+    /**
+     * 按当前滑动时间调度滑动任务
+     */
+    private static void scheduleSlideTask() {
+        slideTask = scheduler.scheduleAtFixedRate(DeviceStatusScheduledService::expireAndCreateBitsetWithLock,
+                SLIDING_TIME + SCHEDULE_TIME_OFFSET,
+                SLIDING_TIME + SCHEDULE_TIME_OFFSET,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * 指定代的bitset键前缀，第 0 代沿用原有的键前缀
+     */
+    private static String getBitsetKeyPrefix(int generation) {
+        return generation == 0 ? BITSET_KEY_PREFIX : DEVICE_STATUS + "bitset_g" + generation + "_";
+    }
+
+    /**
+     * 创建指定代的分片路由
+     *
+     * @param generation 代数
+     * @param num        窗口内bitset数量(固定环的键数量为 num+1)
+     */
+    private static BitsetShardRouter createShardRouter(int generation, int num) {
+        return new BitsetShardRouter(getBitsetKeyPrefix(generation), SHARD_BITS, BITSET_MAX_SHARD, RING_ENABLED ? num + 1 : 0);
+    }
+
+    /**
+     * 读取运行时重新配置后的窗口配置，未重新配置过时返回 null
+     */
+    private static String getBitsetConfig() {
+        return RedisUtils.evalScript("return redis.call('get', KEYS[1])", RScript.ReturnType.VALUE, List.of(BITSET_CONFIG));
+    }
+
+    /**
+     * 切换到新一代的窗口配置：更新滑动时间、心跳间隔及bitset键前缀，并按新的滑动时间重新调度滑动任务
+     * 代数不大于当前代数时不做任何操作
+     *
+     * @param config 代数:滑动时间:默认心跳间隔
+     */
+    private static synchronized void applyBitsetConfig(String config) {
+        String[] parts = config.split(":");
+        int generation = Integer.parseInt(parts[0]);
+        if (generation <= BITSET_GENERATION) return;
+        SLIDING_TIME = Integer.parseInt(parts[1]);
+        HEARTBEAT_DEFAULT = Integer.parseInt(parts[2]);
+        CPE_HEARTBEAT = Math.max(HEARTBEAT_DEFAULT, CLASS_HEARTBEAT_MAX);
+        if (null != heartbeatClasses) {
+            heartbeatClasses.setDefaultHeartbeat(HEARTBEAT_DEFAULT);
+        }
+        shardRouter = createShardRouter(generation, countBitsetNum());
+        BITSET_GENERATION = generation;
+        if (INDEX_CACHE_ENABLED) {
+            refreshLocalBitsetIndex();
+        }
+        if (null != slideTask) {
+            slideTask.cancel(false);
+            scheduleSlideTask();
+        }
+        log.info("--->切换到新的窗口配置, 代数:{}, 滑动时间:{}, 心跳间隔:{}, 窗口内bitset数量:{}",
+                generation, SLIDING_TIME, CPE_HEARTBEAT, countBitsetNum());
+    }
+
+    /**
+     * 运行时重新配置滑动时间和默认心跳间隔，不丢失当前的在线状态
+     * 1. 持有滑动锁，按新的滑动时间将当前窗口内的bitset以 BITOP OR 重新分桶到新一代的bitset中
+     * 2. 以切换脚本原子设置新index和新配置，并通知所有节点切换读写
+     * 3. 再次合并第一次合并之后、切换之前写入旧bitset的心跳，旧一代的bitset保留一个滑动时间后过期
+     * 切换之后尚未收到通知的节点写入旧一代bitset时被心跳写入脚本的代数栅栏拒绝，切换到新一代后重试，不会丢失
+     * 只支持bitset存储方式、未开启时钟模式且使用Lua脚本写入心跳(单机/主从模式，不分片且未开启计数器)：
+     * 管道写入没有代数栅栏；切换脚本与 BITOP 涉及多个键，Redis集群中这些键可能位于不同的槽(CROSSSLOT)
+     *
+     * @param slidingTime 新的滑动时间，单位：秒
+     * @param heartbeat   新的默认心跳间隔，单位：秒
+     * @return 是否切换成功
+     */
+    public static synchronized boolean reconfigureBitsetWindow(int slidingTime, int heartbeat) {
+        if (CLOCK_INDEX_ENABLED || null != storage) {
+            log.warn("--->运行时重新配置只支持bitset存储方式且未开启时钟模式");
+            return false;
+        }
+        if (!useScript()) {
+            log.warn("--->运行时重新配置需要使用Lua脚本写入心跳(单机/主从模式, 不分片且未开启计数器)");
+            return false;
+        }
+        if (slidingTime <= 0 || heartbeat <= 0) return false;
+        if (!getBitsetChangeLock()) {
+            log.warn("--->运行时重新配置失败, 滑动任务正在执行");
+            return false;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            BitsetShardRouter oldRouter = shardRouter;
+            int oldSliding = SLIDING_TIME;
+            int oldNum = countBitsetNum();
+            int index = getBitsetIndex();
+            int generation = BITSET_GENERATION + 1;
+            int newNum = CLASS_HEARTBEAT_MAX > 0 ? countBitsetNum(Math.max(heartbeat, CLASS_HEARTBEAT_MAX), slidingTime)
+                    : Math.max(heartbeat / slidingTime, 1);
+            BitsetShardRouter newRouter = createShardRouter(generation, newNum);
+            //新一代从 index+1 开始，计数器、快照、去重等以index区分的数据不会与旧一代混用
+            int newIndex = index + 1;
+            List<String> newKeys = rebucketBitsets(oldRouter, index, oldNum, oldSliding, newRouter, newIndex, newNum, slidingTime);
+            String config = generation + ":" + slidingTime + ":" + heartbeat;
+            Long switched = RedisUtils.evalScript(SWITCH_CONFIG_SCRIPT, RScript.ReturnType.INTEGER,
+                    Arrays.asList(BITSET_INDEX, BITSET_CONFIG, BITSET_SLIDE_TIME), index, newIndex, config);
+            if (switched < 0) {
+                RedisUtils.deleteObject(newKeys);
+                log.warn("--->运行时重新配置失败, index已变化:{}", index);
+                return false;
+            }
+            RedisUtils.publish(BITSET_CONFIG_TOPIC, config, DeviceStatusScheduledService::applyBitsetConfig);
+            //第一次合并之后、切换之前写入旧一代bitset的心跳，再合并一次(切换之后的写入已被代数栅栏拒绝)
+            rebucketBitsets(oldRouter, index, oldNum, oldSliding, newRouter, newIndex, newNum, slidingTime);
+            if (RING_ENABLED) {
+                presizeRing(newIndex, newRouter.getRingSize());
+            } else {
+                createBitsets(newIndex);
+            }
+            //旧一代的bitset(含尚未切换的节点可能写入的范围)保留一个滑动时间后过期
+            List<String> oldKeys = new ArrayList<>();
+            for (int i = index; i <= newIndex + oldNum; i++) {
+                oldKeys.addAll(oldRouter.keys(i));
+            }
+            Duration retain = Duration.ofSeconds(slidingTime);
+            oldKeys.forEach(key -> RedisUtils.expire(key, retain));
+            if (COUNTER_ENABLED) {
+                //旧一代的计数器与新窗口的index重叠，删除后按新窗口重新统计
+                List<String> counters = new ArrayList<>();
+                for (int i = index; i <= newIndex + Math.max(oldNum, newNum); i++) {
+                    counters.add(BITSET_COUNT_PREFIX + i);
+                }
+                RedisUtils.deleteObject(counters);
+                for (int i = newIndex; i < newIndex + newNum; i++) {
+                    verifyOnlineCounter(i);
+                }
+            }
+            log.info("--->运行时重新配置完成, 滑动时间:{} -> {}, 窗口内bitset数量:{} -> {}, index:{} -> {}, 耗时:{}ms",
+                    oldSliding, slidingTime, oldNum, newNum, index, newIndex, System.currentTimeMillis() - begin);
+            return true;
+        } finally {
+            //滑动锁按旧的滑动时间设置了过期时间，完成后立即释放(切换后距上次滑动不足最小间隔的滑动仍会被滑动脚本拒绝)
+            RedisUtils.deleteObject(BITSET_CHANGE_LOCK);
+        }
+    }
+
+    /**
+     * 将旧一代窗口内的bitset按新的滑动时间重新分桶
+     * 新窗口 newIndex+j 保存 j 个新滑动时间之后仍在线的设备，即旧窗口 index+m ~ index+oldNum-1 的按位或，
+     * 其中 m = j*新滑动时间/旧滑动时间 (向下取整，宁可多保留一个旧滑动时间也不提前判定离线)
+     * 从最后一个新窗口开始倒序处理，每个新窗口只与后一个新窗口及新增的旧窗口按位或，每个旧窗口只读取一次
+     *
+     * @return 新窗口的全部键
+     */
+    private static List<String> rebucketBitsets(BitsetShardRouter oldRouter, int index, int oldNum, int oldSliding,
+                                                BitsetShardRouter newRouter, int newIndex, int newNum, int newSliding) {
+        List<String> newKeys = new ArrayList<>();
+        int[] starts = getRebucketStarts(oldNum, oldSliding, newNum, newSliding);
+        long maxShard = oldRouter.loadMaxShard();
+        for (long shard = 0; shard <= maxShard; shard++) {
+            //已合并到后一个新窗口中的旧窗口起始位置
+            int covered = oldNum;
+            String next = null;
+            for (int j = newNum - 1; j >= 0; j--) {
+                int m = starts[j];
+                List<String> sources = new ArrayList<>();
+                if (null != next) sources.add(next);
+                for (int i = m; i < covered; i++) {
+                    sources.add(oldRouter.key(index + i, shard));
+                }
+                covered = Math.min(covered, m);
+                String dest = newRouter.key(newIndex + j, shard);
+                if (!sources.isEmpty()) {
+                    RedisUtils.orCacheBitSets(dest, sources);
+                }
+                newKeys.add(dest);
+                next = dest;
+            }
+        }
+        return newKeys;
+    }
+
+    /**
+     * 重新分桶时每个新窗口合并的第一个旧窗口：新窗口 j 合并旧窗口 starts[j] ~ oldNum-1
+     * starts[j] = j*新滑动时间/旧滑动时间(向下取整)，超过 oldNum 时为 oldNum(不合并任何旧窗口)
+     */
+    static int[] getRebucketStarts(int oldNum, int oldSliding, int newNum, int newSliding) {
+        int[] starts = new int[newNum];
+        for (int j = 0; j < newNum; j++) {
+            starts[j] = (int) Math.min((long) j * newSliding / oldSliding, oldNum);
+        }
+        return starts;
+    }
+
+    /**
+     * 滑动后汇总的窗口：最后一个滑出的窗口，即滑动前最后一个完整写入的窗口
+     * 多步补充滑动时其余滑出的窗口在错过调度期间未被读取，不再汇总
+     *
+     * @param currentIndex 滑动前的index
+     * @param steps        滑动步数
+     */
+    static int getRollupIndex(int currentIndex, int steps) {
+        return currentIndex + steps - 1;
+    }
+
+    /**
+     * 根据上次滑动时间计算本次需要滑动的步数(不使用滑动脚本时)，并记录本次滑动时间
+     * 按错过的调度次数补充滑动，最少 1 步，最多窗口内bitset数量步(此时窗口内的数据已全部滑出)
+     * 与滑动脚本一致使用Redis服务器时间，不受各节点时钟偏差影响
+     * 开启固定环时只滑动 1 步：多步滑动后部分滑出窗口的键立即作为最新的窗口写入，无法在写入前完成清零
+     */
+    private static int getCatchUpSteps() {
+        long now = RedisUtils.getServerTimeMillis();
+        Long last = RedisUtils.getCacheObject(BITSET_SLIDE_TIME);
+        RedisUtils.setCacheObject(BITSET_SLIDE_TIME, now);
+        if (null == last || RING_ENABLED) return 1;
+        return (int) Math.max(1, Math.min((now - last) / getSchedulePeriodMillis(), countBitsetNum()));
+    }
+
+    /**
+     * 汇总滑出窗口中各厂商、代理商、模型的在线数量
+     * 窗口bitset不分片时在Redis中与每个取值的bitset BITOP AND 后 BITCOUNT，不拉取任何bitset到本地；
+     * 分片时只拉取一次窗口bitset，按在线偏移量读取设备当前的取值后计数
+     * 结果写入以index区分的哈希，全部写入后再切换 ROLLUP_INDEX，查询方始终读取到完整的一次汇总
+     *
+     * @param index 滑出窗口的bitset index
+     */
+    private static void rollupOnlineCount(int index) {
+        if (!ROLLUP_ENABLED) return;
+        try {
+            long begin = System.currentTimeMillis();
+            long[] online = shardRouter.isEnabled()
+                    ? DeviceStatusSnapshot.load(index, shardRouter.keys(index), SHARD_BITS).toOffsets() : null;
+            Duration ttl = Duration.ofSeconds(SLIDING_TIME * 3L);
+            for (DeviceAttribute attribute : ROLLUP_ATTRIBUTES) {
+                Map<String, Long> counts = null != online ? attributeIndex.countValues(attribute, online)
+                        : attributeIndex.countValues(attribute, shardRouter.key(index, 0), ATTR_AND_TMP);
+                String key = ROLLUP_KEY_PREFIX + attribute.getCode() + ":" + index;
+                RedisUtils.setCacheMap(key, counts);
+                RedisUtils.expire(key, ttl);
+            }
+            RedisUtils.setCacheObject(ROLLUP_INDEX, index);
+            log.info("--->滑动汇总在线数量完成, index:{}, 耗时:{}ms", index, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.warn("--->滑动汇总在线数量异常:", e);
+        }
+    }
+
+    /**
+     * 查询最近一次滑动汇总的各取值在线数量
+     *
+     * @param attribute 属性维度(厂商、代理商、模型)
+     * @return 取值 -> 在线数量，未开启或尚未汇总时为空
+     */
+    public static Map<String, Long> getOnlineRollup(DeviceAttribute attribute) {
+        Integer index = RedisUtils.getCacheObject(ROLLUP_INDEX);
+        Map<String, Long> counts = new HashMap<>();
+        if (null == index) return counts;
+        //数值经JSON编解码后可能为 Integer，统一转换为 Long
+        RedisUtils.<Number>getCacheMap(ROLLUP_KEY_PREFIX + attribute.getCode() + ":" + index)
+                .forEach((value, count) -> counts.put(value, count.longValue()));
+        return counts;
+    }
+
+    /**
+     * 查询最近一次滑动汇总的指定取值在线数量
+     *
+     * @param attribute 属性维度(厂商、代理商、模型)
+     * @param value     属性取值
+     */
+    public static Long getOnlineRollup(DeviceAttribute attribute, String value) {
+        Integer index = RedisUtils.getCacheObject(ROLLUP_INDEX);
+        if (null == index) return 0L;
+        Number count = RedisUtils.getCacheMapValue(ROLLUP_KEY_PREFIX + attribute.getCode() + ":" + index, value);
+        return null != count ? count.longValue() : 0L;
+    }
+
+    /**
+     * 读取切换bitset的锁标识
+     * 如果 不存在 则设置 并返回 true 如果 存在 则不做任何操作 返回 false
+     */
+    public static boolean getBitsetChangeLock() {
+        return RedisUtils.setObjectIfAbsent(BITSET_CHANGE_LOCK, "Bitset_Change_Locked", Duration.ofSeconds(SLIDING_TIME));
+    }
+
+    /**
+     * 根据设备心跳间隔+滑动时间窗口 计算需要的bitset数量（向下取整数）,最小值为 1
+     * 配置心跳类别时按最长的心跳间隔计算，与各类别写入的bitset数量一致
+     */
+    public static int countBitsetNum() {
+        return CLASS_HEARTBEAT_MAX > 0 ? countBitsetNum(CPE_HEARTBEAT) : Math.max((CPE_HEARTBEAT / SLIDING_TIME), 1);
+    }
+
+    /**
+     * 指定心跳类别的设备需要写入的bitset数量
+     */
+    public static int countBitsetNum(int heartbeat) {
+        return countBitsetNum(heartbeat, SLIDING_TIME);
+    }
+
+    /**
+     * 指定心跳间隔的设备需要写入的bitset数量（向上取整数）+1
+     * 心跳在窗口末尾写入时，写入的最后一个窗口只剩 (数量-1) 个滑动时间后滑出，多出的一个窗口保证下一次心跳到达前不会被判定离线
+     */
+    static int countBitsetNum(int heartbeat, int slidingTime) {
+        return (heartbeat + slidingTime - 1) / slidingTime + 1;
+    }
+
+    /**
+     * 写入设备在线状态的bitset数量：在线时按设备所属心跳类别，离线时清除全部窗口(类别可能刚发生变化)
+     */
+    private static int getWriteBitsetNum(long offset, boolean online) {
+        return null != heartbeatClasses && online ? countBitsetNum(heartbeatClasses.heartbeatOf(offset)) : countBitsetNum();
+    }
+
+    /**
+     * 按写入的bitset数量分组(未配置心跳类别或离线时只有一组)
+     *
+     * @return bitset数量 -> 偏移量数组
+     */
+    private static Map<Integer, long[]> groupByWriteBitsetNum(long[] offsets, boolean online) {
+        if (null == heartbeatClasses || !online) {
+            return Map.of(countBitsetNum(), offsets);
+        }
+        Map<Integer, long[]> groups = new LinkedHashMap<>();
+        heartbeatClasses.group(offsets).forEach((heartbeat, group) -> groups.merge(countBitsetNum(heartbeat), group,
+                (a, b) -> {
+                    long[] merged = Arrays.copyOf(a, a.length + b.length);
+                    System.arraycopy(b, 0, merged, a.length, b.length);
+                    return merged;
+                }));
+        return groups;
+    }
+
+    /**
+     * 窗口数据的最长保留时间：一个窗口从开始写入到被滑出的最长时间(按带偏移量的调度间隔计算)，单位：秒
+     */
+    public static long getWindowExpireSeconds() {
+        return (countBitsetNum() + 1L) * (SLIDING_TIME + SCHEDULE_TIME_OFFSET);
+    }
+
+    /**
+     * 设置设备在线状态
+     *
+     * @param deviceIdStr 设备ID
+     * @param status      在线状态
+     */
+    public static void setDeviceStatus(String deviceIdStr, Long status) {
+        if (StringUtils.isBlank(deviceIdStr) || null == status) return;
+        //开启偏移量分配时，以下 deviceId 均为分配的偏移量
+        long deviceId = toWriteOffset(Long.parseLong(deviceIdStr));
+        boolean online = status == DeviceStatus.ONLINE.getCode();
+        if (!filterWrite(deviceId, online)) return;
+        try {
+            if (null != writeBuffer) {
+                //开启缓冲区后由刷新线程合并写入
+                writeBuffer.add(deviceId, online);
+                return;
+            }
+            if (null != storage) {
+                storage.write(new long[]{deviceId}, online, getCurrentBitsetIndex());
+                return;
+            }
+            if (useScript()) {
+                //一次EVALSHA完成 读取index + 设置位，窗口配置已切换时切换到新一代后重试一次
+                if (evalSetStatusScript(deviceId, online) < 0) {
+                    reloadBitsetConfig();
+                    if (evalSetStatusScript(deviceId, online) < 0) {
+                        throw new IllegalStateException("窗口配置切换后写入仍被拒绝, 代数:" + BITSET_GENERATION);
+                    }
+                }
+                markDirty(new long[]{deviceId});
+                return;
+            }
+            writeBitsets(new long[]{deviceId}, online, getWriteBitsetNum(deviceId, online));
+        } catch (RuntimeException e) {
+            unmarkFailedWrite(new long[]{deviceId}, online);
+            throw e;
+        }
+    }
+
+    /**
+     * 批量设置设备在线状态
+     * 偏移量排序去重后，每个bitset按 BATCH_CHUNK_SIZE 分组发送 BITFIELD 命令，不经过写入缓冲区
+     *
+     * @param deviceIds 设备ID数组
+     * @param status    在线状态
+     * @return 本批写入耗时，单位：毫秒
+     */
+    public static long setDeviceStatusBatch(long[] deviceIds, Long status) {
+        if (null == deviceIds || deviceIds.length == 0 || null == status) return 0L;
+        long begin = System.nanoTime();
+        long[] sorted = deviceIds.clone();
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = toWriteOffset(sorted[i]);
+        }
+        Arrays.sort(sorted);
+        boolean online = status == DeviceStatus.ONLINE.getCode();
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            //离线写入不去重，批量写入前统一清除去重标记
+            if ((i == 0 || sorted[i] != sorted[i - 1]) && (!online || filterWrite(sorted[i], true))) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        if (size == 0) return 0L;
+        long[] offsets = Arrays.copyOf(sorted, size);
+        if (!online) unmarkWrite(offsets);
+        writeMarkedDeviceStatus(offsets, online);
+        long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        log.debug("--->批量设置设备在线状态, 数量:{}, 耗时:{}ms", size, costMillis);
+        return costMillis;
+    }
+
+    /**
+     * 设备ID转换为写入使用的偏移量：开启偏移量分配时获取(或分配)紧凑偏移量，否则直接使用设备ID
+     */
+    private static long toWriteOffset(long deviceId) {
+        return null != offsetAllocator ? offsetAllocator.allocate(deviceId) : deviceId;
+    }
+
+    /**
+     * 设备ID转换为查询使用的偏移量：开启偏移量分配时只查询不分配，未分配时返回 -1
+     */
+    private static long toReadOffset(long deviceId) {
+        return null != offsetAllocator ? offsetAllocator.lookup(deviceId) : deviceId;
+    }
+
+    /**
+     * 回收设备的偏移量(设备被逻辑删除时调用)，未开启偏移量分配时不做任何操作
+     * 回收前先清除该偏移量在所有窗口中的在线状态，避免复用该偏移量的新设备继承旧设备的状态
+     *
+     * @param deviceIdStr 设备ID
+     */
+    public static void releaseDeviceOffset(String deviceIdStr) {
+        if (null == offsetAllocator || StringUtils.isBlank(deviceIdStr)) return;
+        long deviceId = Long.parseLong(deviceIdStr);
+        long offset = offsetAllocator.lookup(deviceId);
+        if (offset < 0) return;
+        unmarkWrite(new long[]{offset});
+        writeDeviceStatus(new long[]{offset}, false);
+        if (null != attributeIndex) {
+            attributeIndex.remove(offset);
+        }
+        if (null != heartbeatClasses) {
+            heartbeatClasses.update(offset, null);
+        }
+        offsetAllocator.release(deviceId);
+    }
+
+    /**
+     * 回收数据库中已逻辑删除设备的偏移量
+     * 以上次回收的开始时间为条件只查询期间删除(修改)的设备，启动后首次回收全部已删除设备，已回收的设备再次回收时不做任何操作
+     */
+    private static void reclaimDeletedDeviceOffsets() {
+        try {
+            if (!RedisUtils.setObjectIfAbsent(OFFSET_RECLAIM_LOCK, "Offset_Reclaim_Locked", Duration.ofSeconds(OFFSET_RECLAIM_INTERVAL))) {
+                return;
+            }
+            long begin = System.currentTimeMillis();
+            List<DeviceInfo> deviceInfos = getDeviceInfoService().queryDeletedDeviceList(lastOffsetReclaimTime);
+            for (DeviceInfo deviceInfo : deviceInfos) {
+                releaseDeviceOffset(deviceInfo.getId());
+            }
+            lastOffsetReclaimTime = new Date(begin);
+            log.info("--->回收已删除设备偏移量, 数量:{}, 耗时:{}ms", deviceInfos.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.warn("--->回收已删除设备偏移量异常:", e);
+        }
+    }
+
+    /**
+     * 获取设备偏移量分配器(未开启时为 null)
+     */
+    public static DeviceOffsetAllocator getOffsetAllocator() {
+        return offsetAllocator;
+    }
+
+    /**
+     * 心跳写入去重：同一时间槽内本节点已写入过在线状态的设备直接跳过，离线写入清除全部节点的标记
+     *
+     * @return true=需要写入；false=可跳过
+     */
+    private static boolean filterWrite(long deviceId, boolean online) {
+        if (null == writeFilter) return true;
+        if (!online) {
+            unmarkWrite(new long[]{deviceId});
+            return true;
+        }
+        return writeFilter.tryMark(deviceId, getCurrentBitsetIndex());
+    }
+
+    /**
+     * 写入离线状态时清除去重标记：本节点直接清除，其他节点的通知暂存后每 DEDUPE_UNMARK_INTERVAL 合并发布一次(未开启去重时不做任何操作)
+     * 去重标记只保存在各节点本地，其他节点收到通知前(一个通知间隔加一次发布订阅往返)到达该节点的在线心跳仍会被跳过，
+     * 此时设备在当前时间槽内保持离线，到下一个时间槽的心跳恢复在线
+     */
+    private static void unmarkWrite(long[] offsets) {
+        if (null == writeFilter) return;
+        for (long offset : offsets) {
+            writeFilter.unmark(offset);
+        }
+        synchronized (UNMARK_LOCK) {
+            if (pendingUnmarkSize + offsets.length > pendingUnmarks.length) {
+                pendingUnmarks = Arrays.copyOf(pendingUnmarks, Math.max(pendingUnmarks.length * 2, pendingUnmarkSize + offsets.length));
+            }
+            System.arraycopy(offsets, 0, pendingUnmarks, pendingUnmarkSize, offsets.length);
+            pendingUnmarkSize += offsets.length;
+        }
+    }
+
+    /**
+     * 发布暂存的清除去重标记通知，每条消息最多包含 BATCH_CHUNK_SIZE 个偏移量
+     */
+    private static void publishPendingUnmarks() {
+        long[] offsets;
+        synchronized (UNMARK_LOCK) {
+            if (pendingUnmarkSize == 0) return;
+            offsets = Arrays.copyOf(pendingUnmarks, pendingUnmarkSize);
+            pendingUnmarkSize = 0;
+        }
+        try {
+            for (int from = 0; from < offsets.length; from += BATCH_CHUNK_SIZE) {
+                StringBuilder message = new StringBuilder();
+                for (int i = from; i < Math.min(from + BATCH_CHUNK_SIZE, offsets.length); i++) {
+                    message.append(i == from ? "" : ",").append(offsets[i]);
+                }
+                RedisUtils.publish(DEDUPE_UNMARK_TOPIC, message.toString());
+            }
+        } catch (Exception e) {
+            log.warn("--->发布清除去重标记通知异常, 数量:{}", offsets.length, e);
+        }
+    }
+
+    /**
+     * 写入失败时清除本节点已标记的去重标记，保证同一时间槽内之后的心跳能够重新写入
+     */
+    private static void unmarkFailedWrite(long[] offsets, boolean online) {
+        if (null == writeFilter || !online) return;
+        for (long offset : offsets) {
+            writeFilter.unmark(offset);
+        }
+    }
+
+    /**
+     * 批量写入已通过去重过滤的设备在线状态，写入异常时清除去重标记后抛出
+     * (写入缓冲区的刷新与批量写入使用，缓冲区丢弃写入失败的批次时之后的心跳仍可写入)
+     */
+    private static void writeMarkedDeviceStatus(long[] deviceIds, Boolean online) {
+        try {
+            writeDeviceStatus(deviceIds, online);
+        } catch (RuntimeException e) {
+            unmarkFailedWrite(deviceIds, online);
+            throw e;
+        }
+    }
+
+    /**
+     * 获取心跳写入去重过滤器(未开启时为 null)，可用于读取去重比例等统计信息
+     */
+    public static DeviceStatusWriteFilter getWriteFilter() {
+        return writeFilter;
+    }
+
+    /**
+     * 批量写入设备在线状态
+     * 按 BATCH_CHUNK_SIZE 分批，每批对每个bitset只发送一条 BITFIELD 命令
+     *
+     * @param deviceIds 设备ID数组
+     * @param online    是否在线
+     */
+    private static void writeDeviceStatus(long[] deviceIds, Boolean online) {
+        if (null != storage) {
+            storage.write(deviceIds, online, getCurrentBitsetIndex());
+            return;
+        }
+        for (int from = 0; from < deviceIds.length; from += BATCH_CHUNK_SIZE) {
+            long[] chunk = Arrays.copyOfRange(deviceIds, from, Math.min(from + BATCH_CHUNK_SIZE, deviceIds.length));
+            //不同心跳类别的设备写入的bitset数量不同，按数量分组写入
+            groupByWriteBitsetNum(chunk, online).forEach((num, group) -> {
+                if (useScript()) {
+                    //窗口配置已切换时切换到新一代后重试一次(分组前读取的bitset数量仍按旧配置计算，新一代按新配置重新分组)
+                    if (evalSetStatusBatchScript(group, online, num) < 0) {
+                        reloadBitsetConfig();
+                        writeDeviceStatus(group, online);
+                        return;
+                    }
+                    markDirty(group);
+                } else {
+                    writeBitsets(group, online, num);
+                }
+            });
+        }
+    }
+
+    /**
+     * 在客户端确定index后，通过管道一次写入所有bitset
+     * 时钟模式下每个bitset的过期时间点为其时间槽结束时间(加上允许的时钟偏差)，无需滑动任务删除
+     *
+     * @param offsets 偏移量数组
+     * @param online  是否在线
+     * @param num     写入的bitset数量
+     */
+    private static void writeBitsets(long[] offsets, boolean online, int num) {
+        //只读取一次index，避免两次读取之间发生滑动导致写入范围错位
+        int start = getCurrentBitsetIndex();
+        //按分片分组，每个分片一次管道提交(不分片时只有一组)
+        shardRouter.group(offsets).forEach((shard, locals) -> {
+            if (CLOCK_INDEX_ENABLED) {
+                RedisUtils.setCacheBitSetsExpireAt(getBitsetKeyExpireAt(start, shard, num), locals, online);
+            } else if (COUNTER_ENABLED) {
+                RedisUtils.evalScript(SET_DEVICE_STATUS_COUNTED_SCRIPT, RScript.ReturnType.INTEGER,
+                        getCountedKeys(start, shard, num), getCountedArgs(locals, online));
+            } else {
+                //过期时间已在滑动时设置，写入落在滑动删除之后重新创建的键没有过期时间时补充设置
+                RedisUtils.setCacheBitSets(getBitsetKeys(start, shard, num), locals, online, getWriteExpireSeconds());
+            }
+        });
+        markDirty(offsets);
+    }
+
+    /**
+     * 以心跳写入脚本写入单个偏移量，先读取代数再读取分片路由，保证路由不早于代数
+     *
+     * @return 写入的起始index，-1 表示代数已过期
+     */
+    private static long evalSetStatusScript(long offset, boolean online) {
+        int generation = BITSET_GENERATION;
+        return RedisUtils.<Long>evalScript(SET_DEVICE_STATUS_SCRIPT, RScript.ReturnType.INTEGER,
+                Arrays.asList(BITSET_INDEX, shardRouter.getKeyPrefix(), BITSET_CONFIG),
+                offset, online ? 1 : 0, getWriteBitsetNum(offset, online), shardRouter.getRingSize(), generation);
+    }
+
+    private static CompletionStage<Long> evalSetStatusScriptAsync(long offset, boolean online) {
+        int generation = BITSET_GENERATION;
+        return RedisUtils.evalScriptAsync(SET_DEVICE_STATUS_SCRIPT, RScript.ReturnType.INTEGER,
+                Arrays.asList(BITSET_INDEX, shardRouter.getKeyPrefix(), BITSET_CONFIG),
+                offset, online ? 1 : 0, getWriteBitsetNum(offset, online), shardRouter.getRingSize(), generation);
+    }
+
+    /**
+     * 以批量心跳写入脚本写入一组bitset数量相同的偏移量
+     *
+     * @return 写入的起始index，-1 表示代数已过期
+     */
+    private static long evalSetStatusBatchScript(long[] offsets, boolean online, int num) {
+        int generation = BITSET_GENERATION;
+        Object[] values = new Object[offsets.length + 4];
+        values[0] = online ? 1 : 0;
+        values[1] = num;
+        values[2] = shardRouter.getRingSize();
+        values[3] = generation;
+        for (int i = 0; i < offsets.length; i++) {
+            values[i + 4] = offsets[i];
+        }
+        return RedisUtils.<Long>evalScript(SET_DEVICE_STATUS_BATCH_SCRIPT, RScript.ReturnType.INTEGER,
+                Arrays.asList(BITSET_INDEX, shardRouter.getKeyPrefix(), BITSET_CONFIG), values);
+    }
+
+    /**
+     * 写入被代数栅栏拒绝后，从Redis读取窗口配置并切换到新一代
+     */
+    private static void reloadBitsetConfig() {
+        String config = getBitsetConfig();
+        if (null != config) applyBitsetConfig(config);
+    }
+
+    /**
+     * 写入完成后记录修改的脏页(未开启增量更新时不做任何操作)
+     */
+    private static void markDirty(long[] offsets) {
+        if (null != pageTracker) {
+            pageTracker.mark(offsets);
+        }
+    }
+
+    /**
+     * 是否使用Lua脚本写入心跳(时钟模式没有index键；分片时脚本内无法确定分片键，均使用管道写入)
+     */
+    private static boolean useScript() {
+        return SCRIPT_ENABLED && !CLOCK_INDEX_ENABLED && !shardRouter.isEnabled() && !COUNTER_ENABLED;
+    }
+
+    /**
+     * 计数写入脚本的键：以 start 为起始index，num 个bitset在指定分片的键 + 对应窗口的计数器键
+     */
+    private static List<Object> getCountedKeys(int start, long shard, int num) {
+        int end = start + num;
+        List<Object> keys = new ArrayList<>((end - start) * 2);
+        for (int i = start; i < end; i++) {
+            keys.add(shardRouter.key(i, shard));
+            keys.add(BITSET_COUNT_PREFIX + i);
+        }
+        return keys;
+    }
+
+    /**
+     * 计数写入脚本的参数：值(0/1) + 偏移量
+     */
+    private static Object[] getCountedArgs(long[] offsets, boolean online) {
+        Object[] args = new Object[offsets.length + 2];
+        args[0] = online ? 1 : 0;
+        args[1] = getWriteExpireSeconds();
+        for (int i = 0; i < offsets.length; i++) {
+            args[i + 2] = offsets[i];
+        }
+        return args;
+    }
+
+    /**
+     * 客户端确定index写入时，bitset没有过期时间时设置的过期时间，单位：秒
+     * 固定环的键常驻，不设置过期时间
+     */
+    private static long getWriteExpireSeconds() {
+        return RING_ENABLED ? 0 : RedisExpireConstant.deviceStatusBitsetExpirationTime;
+    }
+
+    /**
+     * 创建以 start 为起始index的窗口内所有bitset(全部分片)，并设置过期时间(已存在的bitset保留数据，只刷新过期时间)
+     * 由滑动任务在每次滑动后执行一次，心跳写入时不再设置过期时间
+     */
+    private static void createBitsets(int start) {
+        List<String> bitsetKeys = new ArrayList<>();
+        for (int i = start; i < start + countBitsetNum(); i++) {
+            bitsetKeys.addAll(shardRouter.keys(i));
+        }
+        RedisUtils.createCacheBitSets(bitsetKeys, RedisExpireConstant.deviceStatusBitsetExpirationTime);
+    }
+
+    /**
+     * 回收固定环中滑出窗口的键：这些键要在下一次滑动后才作为最新的窗口写入，期间分段清零不影响读写
+     * 开始前记录待回收的index范围 "from:to"，全部完成后删除记录
+     *
+     * @param from 第一个滑出窗口的bitset index
+     * @param to   滑动后的bitset index(不包含)
+     */
+    private static void reclaimRingSlots(int from, int to) {
+        RedisUtils.setCacheObject(BITSET_RING_RECLAIM, from + ":" + to);
+        long begin = System.currentTimeMillis();
+        List<String> keys = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            keys.addAll(shardRouter.keys(i));
+        }
+        if (RING_RECLAIM_UNLINK.equals(RING_RECLAIM)) {
+            //UNLINK 在后台线程释放内存，随后一次性预分配长度
+            RedisUtils.unlinkObject(keys);
+            presizeRing(from, to - from);
+        } else {
+            for (String key : keys) {
+                long size = RedisUtils.getCacheSize(key);
+                for (long start = 0; start < size; start += RING_ZERO_CHUNK_BYTES) {
+                    RedisUtils.zeroCacheRange(key, start, (int) Math.min(RING_ZERO_CHUNK_BYTES, size - start));
+                }
+            }
+        }
+        RedisUtils.deleteObject(BITSET_RING_RECLAIM);
+        log.info("--->固定环回收完成, index:[{}, {}), 耗时:{}ms", from, to, System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 将固定环中从index开始的键(全部分片)预分配到目标长度，不修改已有的位
+     * 目标位数取 RING_CAPACITY，未配置时取已分配的偏移量数量，两者均为 0 时只创建键
+     *
+     * @param index 起始index
+     * @param count 键数量，为 ringSize 时即整个环
+     */
+    private static void presizeRing(int index, int count) {
+        long capacity = RING_CAPACITY > 0 ? RING_CAPACITY : null != offsetAllocator ? offsetAllocator.capacity() : 0;
+        int shardBits = shardRouter.getShardBits();
+        Map<String, Long> keyBits = new LinkedHashMap<>();
+        for (int i = index; i < index + count; i++) {
+            List<String> keys = shardRouter.keys(i);
+            for (int s = 0; s < keys.size(); s++) {
+                long bits = shardBits > 0 ? Math.min(capacity - ((long) s << shardBits), 1L << shardBits) : capacity;
+                keyBits.put(keys.get(s), Math.max(bits, 1));
+            }
+        }
+        RedisUtils.presizeCacheBitSets(keyBits);
+    }
+
+    /**
+     * 以 start 为起始index，num 个bitset在指定分片的键
+     */
+    private static List<String> getBitsetKeys(int start, long shard, int num) {
+        int end = start + num;
+        List<String> bitsetKeys = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            bitsetKeys.add(shardRouter.key(i, shard));
+        }
+        return bitsetKeys;
+    }
+
+    /**
+     * 时钟模式下，以 start 为起始index，num 个bitset在指定分片的键及其过期时间点
+     * 开启滑动汇总时多保留一个时间槽，下一个时间槽开始后的调度任务仍可读取汇总
+     */
+    private static Map<String, Long> getBitsetKeyExpireAt(int start, long shard, int num) {
+        int end = start + num;
+        long retain = ROLLUP_ENABLED ? SLIDING_TIME * 1000L : 0;
+        Map<String, Long> keyExpireAt = new LinkedHashMap<>();
+        for (int i = start; i < end; i++) {
+            keyExpireAt.put(shardRouter.key(i, shard), DeviceStatusClock.slotEndMillis(i, SLIDING_TIME) + CLOCK_MAX_SKEW + retain);
+        }
+        return keyExpireAt;
+    }
+
+    /**
+     * 获取心跳写入缓冲区(未开启时为 null)，可用于读取批量大小、刷新耗时等统计信息
+     */
+    public static DeviceStatusWriteBuffer getWriteBuffer() {
+        return writeBuffer;
+    }
+
+    /**
+     * 获取设备在线状态
+     *
+     * @param deviceIdStr 设备ID字符串
+     * @return 在线状态 (ONLINE 表示在线, OFFLINE 表示离线)
+     */
+    public static Long getDeviceStatus(String deviceIdStr) {
+        return getDeviceStatus(Long.parseLong(deviceIdStr));
+    }
+
+    /**
+     * 获取设备在线状态
+     *
+     * @param id 设备ID
+     * @return 在线状态 (ONLINE 表示在线, OFFLINE 表示离线)
+     */
+    private static Long getDeviceStatus(long id) {
+        long deviceId = toReadOffset(id);
+        if (deviceId < 0) return DeviceStatus.OFFLINE.getCode();
+        int index = getCurrentBitsetIndex();
+        DeviceStatusSnapshot near = getSnapshot(index);
+        boolean online = null != storage ? storage.isOnline(deviceId, index)
+                : null != near ? near.get(deviceId)
+                : RedisUtils.getCacheBitSet(shardRouter.keyOf(index, deviceId), shardRouter.local(deviceId));
+        return online ? DeviceStatus.ONLINE.getCode() : DeviceStatus.OFFLINE.getCode();
+    }
+
+
+    /**
+     * 批量获取设备在线状态
+     * 只读取一次index，每个bitset(分片)的全部偏移量通过一条 BITFIELD GET u1 命令查询
+     *
+     * @param deviceIdStrs 设备ID字符串集合
+     * @return 与 deviceIdStrs 迭代顺序一致的在线状态，第 i 位为 true 表示第 i 个设备在线
+     */
+    public static BitSet getDeviceStatuses(Collection<String> deviceIdStrs) {
+        if (deviceIdStrs.isEmpty()) return new BitSet();
+        long[] offsets = new long[deviceIdStrs.size()];
+        int n = 0;
+        for (String deviceIdStr : deviceIdStrs) {
+            offsets[n++] = StringUtils.isBlank(deviceIdStr) ? -1 : toReadOffset(Long.parseLong(deviceIdStr));
+        }
+        return getOffsetStatuses(offsets);
     }
 
-    @Override
-    public void afterPropertiesSet() {
-        //TODO: 需要修改成自定义的心跳间隔
-        CPE_HEARTBEAT = 1800;
-        log.info("--->CPE心跳间隔为:{}", CPE_HEARTBEAT);
+    /**
+     * 批量获取偏移量的在线状态
+     *
+     * @param offsets 偏移量数组，小于 0 表示离线
+     * @return 第 i 位为 true 表示第 i 个偏移量在线
+     */
+    private static BitSet getOffsetStatuses(long[] offsets) {
+        BitSet result = new BitSet(offsets.length);
+        int index = getCurrentBitsetIndex();
+        DeviceStatusSnapshot near = getSnapshot(index);
+        if (null != near) {
+            for (int i = 0; i < offsets.length; i++) {
+                result.set(i, near.get(offsets[i]));
+            }
+            return result;
+        }
+        //按bitset键(存储方式)分组，记录每个偏移量在输入中的位置，未分配偏移量的设备视为离线
+        Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] >= 0) {
+                String key = null != storage ? STORAGE : shardRouter.keyOf(index, offsets[i]);
+                positions.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            }
+        }
+        positions.forEach((key, list) -> {
+            long[] locals = new long[list.size()];
+            for (int j = 0; j < locals.length; j++) {
+                //非默认存储方式不分片，偏移量不变
+                long offset = offsets[list.get(j)];
+                locals[j] = null != storage ? offset : shardRouter.local(offset);
+            }
+            if (null != storage) {
+                boolean[] online = storage.isOnline(locals, index);
+                for (int j = 0; j < online.length; j++) {
+                    result.set(list.get(j), online[j]);
+                }
+            } else {
+                long[] bits = RedisUtils.getCacheBitFields(key, 1, locals);
+                for (int j = 0; j < bits.length; j++) {
+                    result.set(list.get(j), bits[j] == 1);
+                }
+            }
+        });
+        return result;
+    }
 
-        //定时调度任务，用于滑动时间窗口
-        scheduler.scheduleAtFixedRate(DeviceStatusScheduledService::expireAndCreateBitsetWithLock,
-                SLIDING_TIME + SCHEDULE_TIME_OFFSET,
-                SLIDING_TIME + SCHEDULE_TIME_OFFSET,
-                TimeUnit.SECONDS);
-        log.info("--->滑动时间窗口间隔为:{}", SLIDING_TIME);
+    /**
+     * 新增或修改设备时调用，更新设备属性bitset索引及设备的心跳类别(均未开启时不做任何操作)
+     *
+     * @param deviceInfo 设备信息(需包含 id、companyId、agentId、modelId、softwareVersion)
+     */
+    public static void updateDeviceAttributes(DeviceInfo deviceInfo) {
+        if ((null == attributeIndex && null == heartbeatClasses) || null == deviceInfo || StringUtils.isBlank(deviceInfo.getId())) return;
+        long offset = toWriteOffset(Long.parseLong(deviceInfo.getId()));
+        if (null != attributeIndex) {
+            attributeIndex.update(offset, deviceInfo);
+        }
+        if (null != heartbeatClasses) {
+            heartbeatClasses.update(offset, deviceInfo.getModelId());
+        }
     }
 
     /**
-     * 过期删除正在使用的bitset 并滚动创建新的bitset
-     * 使用Redis分布式锁来确保只有一个微服务节点执行expireAndCreateBitsetWithLock任务
+     * 删除设备时调用，从设备属性bitset索引及心跳类别中移除(均未开启时不做任何操作)
+     *
+     * @param deviceIdStr 设备ID
      */
-    private static void expireAndCreateBitsetWithLock() {
+    public static void removeDeviceAttributes(String deviceIdStr) {
+        if ((null == attributeIndex && null == heartbeatClasses) || StringUtils.isBlank(deviceIdStr)) return;
+        long offset = toReadOffset(Long.parseLong(deviceIdStr));
+        if (offset < 0) return;
+        if (null != attributeIndex) {
+            attributeIndex.remove(offset);
+        }
+        if (null != heartbeatClasses) {
+            heartbeatClasses.update(offset, null);
+        }
+    }
+
+    /**
+     * 以数据库中的全部设备按型号重建心跳类别
+     */
+    public static void rebuildHeartbeatClasses() {
+        if (null == heartbeatClasses) return;
         try {
-            boolean lockAcquired = getBitsetChangeLock();
-//            log.info("--->过期删除正在使用的bitset 并滚动创建新的bitset 分布式lock = " + lockAcquired);
-            if (lockAcquired) {
-                int currentIndex = getBitsetIndex();
-                String bitsetKeyToExpire = BITSET_KEY_PREFIX + currentIndex;
-                slideBitsetIndex();
-                //滑动bitset的index之后 再过期处理当前使用的bitset
-                deleteBitset(bitsetKeyToExpire);
-                //同步在线状态到Sql中
-                syncDeviceStatusToSql();
-//                log.info("--->过期Bitset的key键名称: {}", bitsetKeyToExpire);
+            long begin = System.currentTimeMillis();
+            List<DeviceInfo> deviceInfos = getDeviceInfoService().queryDeviceAttributeList();
+            long[] offsets = new long[deviceInfos.size()];
+            List<Long> modelIds = new ArrayList<>(deviceInfos.size());
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = toWriteOffset(Long.parseLong(deviceInfos.get(i).getId()));
+                modelIds.add(deviceInfos.get(i).getModelId());
             }
+            heartbeatClasses.rebuild(offsets, modelIds);
+            log.info("--->心跳类别重建完成, 数量:{}, 耗时:{}ms", offsets.length, System.currentTimeMillis() - begin);
         } catch (Exception e) {
-            log.warn("--->过期删除正在使用的bitset 并滚动创建新的bitset 异常:", e);
+            log.warn("--->心跳类别重建异常:", e);
         }
     }
 
     /**
-     * 读取切换bitset的锁标识
-     * 如果 不存在 则设置 并返回 true 如果 存在 则不做任何操作 返回 false
+     * 以数据库中的全部设备重建设备属性bitset索引
      */
-    public static boolean getBitsetChangeLock() {
-        return RedisUtils.setObjectIfAbsent(BITSET_CHANGE_LOCK, "Bitset_Change_Locked", Duration.ofSeconds(SLIDING_TIME));
+    public static void rebuildDeviceAttributeIndex() {
+        if (null == attributeIndex) return;
+        long begin = System.currentTimeMillis();
+        List<DeviceInfo> deviceInfos = getDeviceInfoService().queryDeviceAttributeList();
+        long[] offsets = new long[deviceInfos.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = toWriteOffset(Long.parseLong(deviceInfos.get(i).getId()));
+        }
+        attributeIndex.rebuild(offsets, deviceInfos);
+        log.info("--->设备属性bitset索引重建完成, 数量:{}, 耗时:{}ms", offsets.length, System.currentTimeMillis() - begin);
     }
 
     /**
-     * 根据设备心跳间隔+滑动时间窗口 计算需要的bitset数量（向下取整数）,最小值为 1
+     * 查询属性为指定取值的在线设备数量
+     * 默认bitset存储且不分片时，在Redis中 BITOP AND 后 BITCOUNT；否则拉取属性bitset后在本地逐个判断在线状态
+     *
+     * @param attribute 属性维度
+     * @param value     属性取值
      */
-    public static int countBitsetNum() {
-        return Math.max((CPE_HEARTBEAT / SLIDING_TIME), 1);
+    public static Long getOnlineDeviceCountByAttribute(DeviceAttribute attribute, String value) {
+        if (null == attributeIndex) return 0L;
+        int index = getCurrentBitsetIndex();
+        if (null == storage && !shardRouter.isEnabled() && null == getSnapshot(index)) {
+            return RedisUtils.evalScript(COUNT_ATTR_ONLINE_SCRIPT, RScript.ReturnType.INTEGER,
+                    Arrays.asList(ATTR_AND_TMP, attributeIndex.key(attribute, value), shardRouter.key(index, 0)));
+        }
+        return (long) getOnlineOffsetsByAttribute(attribute, value).length;
     }
 
     /**
-     * 设置设备在线状态
+     * 查询属性为指定取值的在线设备ID列表
      *
-     * @param deviceIdStr 设备ID
-     * @param status      在线状态
+     * @param attribute 属性维度
+     * @param value     属性取值
      */
-    public static void setDeviceStatus(String deviceIdStr, Long status) {
-        if (StringUtils.isBlank(deviceIdStr) || null == status) return;
-        long deviceId = Long.parseLong(deviceIdStr);
-        int start = getBitsetIndex();
-        int end = getBitsetIndex() + countBitsetNum();
-        for (int i = start; i < end; i++) {
-            RedisUtils.setCacheBitSet(BITSET_KEY_PREFIX + i, deviceId, status == DeviceStatus.ONLINE.getCode(),
-                    RedisExpireConstant.deviceStatusBitsetExpirationTime);
+    public static List<String> getOnlineDeviceIdsByAttribute(DeviceAttribute attribute, String value) {
+        if (null == attributeIndex) return new ArrayList<>();
+        long[] offsets = getOnlineOffsetsByAttribute(attribute, value);
+        if (null != offsetAllocator) {
+            List<String> deviceIds = offsetAllocator.reverse(offsets);
+            deviceIds.removeIf(Objects::isNull);
+            return deviceIds;
         }
+        List<String> deviceIds = new ArrayList<>(offsets.length);
+        for (long offset : offsets) {
+            deviceIds.add(String.valueOf(offset));
+        }
+        return deviceIds;
     }
 
     /**
-     * 获取设备在线状态
-     *
-     * @param deviceIdStr 设备ID字符串
-     * @return 在线状态 (ONLINE 表示在线, OFFLINE 表示离线)
+     * 拉取属性bitset到本地，与当前窗口的在线状态按位与(有本地快照时逐字按位与，否则批量查询在线状态)
      */
-    public static Long getDeviceStatus(String deviceIdStr) {
-        long deviceId = Long.parseLong(deviceIdStr);
-        int index = getBitsetIndex();
-        return RedisUtils.getCacheBitSet(BITSET_KEY_PREFIX + index, deviceId) ? DeviceStatus.ONLINE.getCode() : DeviceStatus.OFFLINE.getCode();
+    private static long[] getOnlineOffsetsByAttribute(DeviceAttribute attribute, String value) {
+        long[] members = DeviceStatusSnapshot.load(0, List.of(attributeIndex.key(attribute, value)), 0).toOffsets();
+        BitSet online = getOffsetStatuses(members);
+        long[] offsets = new long[online.cardinality()];
+        int n = 0;
+        for (int i = online.nextSetBit(0); i >= 0; i = online.nextSetBit(i + 1)) {
+            offsets[n++] = members[i];
+        }
+        return offsets;
     }
 
-
     /**
      * 根据设备sn，获取设备在线状态
      *
@@ -151,23 +1885,270 @@ public class DeviceStatusScheduledService implements InitializingBean {
      * @return 在线状态 (ONLINE 表示在线, OFFLINE 表示离线)
      */
     public static Long getDeviceStatusBySn(String deviceSnStr) {
+        if (null != snIndex) {
+            long deviceId = snIndex.get(deviceSnStr);
+            if (deviceId >= 0) {
+                return getDeviceStatus(deviceId);
+            }
+        }
         DeviceInfo deviceInfo = getRedissonCollectionCache().getMapCacheValue(RedisConstant.Biz.baseDeviceInfoMap,
                 deviceSnStr, () -> {
                     return (MapstructUtils.convert(getDeviceInfoService().queryBaseBySn(deviceSnStr), DeviceInfo.class));
                 }, RedisExpireConstant.deviceInfoMapExpirationTime);
         if (null != deviceInfo) {
+            if (null != snIndex) {
+                //索引中缺失的设备(如索引加载后新增的设备)补充到本节点索引中
+                snIndex.put(deviceSnStr, Long.parseLong(deviceInfo.getId()));
+            }
             return getDeviceStatus(deviceInfo.getId());
         } else {
             return DeviceStatus.OFFLINE.getCode();
         }
     }
 
+    /**
+     * 新增或修改设备sn时调用，通知所有节点更新本地sn索引
+     *
+     * @param deviceSnStr 设备sn
+     * @param deviceIdStr 设备ID
+     */
+    public static void putDeviceSn(String deviceSnStr, String deviceIdStr) {
+        if (!SN_INDEX_ENABLED || StringUtils.isBlank(deviceSnStr) || StringUtils.isBlank(deviceIdStr)) return;
+        RedisUtils.publish(SN_INDEX_TOPIC, deviceIdStr + ":" + deviceSnStr);
+    }
+
+    /**
+     * 删除设备时调用，通知所有节点从本地sn索引中移除
+     *
+     * @param deviceSnStr 设备sn
+     */
+    public static void removeDeviceSn(String deviceSnStr) {
+        if (!SN_INDEX_ENABLED || StringUtils.isBlank(deviceSnStr)) return;
+        RedisUtils.publish(SN_INDEX_TOPIC, "-1:" + deviceSnStr);
+    }
+
+    /**
+     * 处理sn索引变更消息：{设备ID}:{sn}，设备ID为 -1 表示删除
+     */
+    private static void applySnIndexChange(String message) {
+        int split = message.indexOf(':');
+        if (split <= 0) return;
+        long deviceId = Long.parseLong(message.substring(0, split));
+        String deviceSn = message.substring(split + 1);
+        if (deviceId < 0) {
+            snIndex.remove(deviceSn);
+        } else {
+            snIndex.put(deviceSn, deviceId);
+        }
+    }
+
+    /**
+     * 从数据库全量加载sn索引
+     */
+    private static void reloadSnIndex() {
+        try {
+            long begin = System.currentTimeMillis();
+            //加载期间收到的变更由索引记录，替换为数据库中的全量数据后重放
+            snIndex.replaceAll(() -> {
+                Map<String, Long> snIds = new HashMap<>();
+                getDeviceInfoService().queryDeviceSnList().forEach(deviceInfo -> {
+                    if (StringUtils.isNotBlank(deviceInfo.getDeviceSn())) {
+                        snIds.put(deviceInfo.getDeviceSn(), Long.parseLong(deviceInfo.getId()));
+                    }
+                });
+                return snIds;
+            });
+            log.info("--->本地sn索引加载完成, 数量:{}, 堆外内存:{}KB, 耗时:{}ms", snIndex.size(),
+                    snIndex.getMemoryBytes() >> 10, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.warn("--->本地sn索引加载异常:", e);
+        }
+    }
+
+    /**
+     * 获取本地sn索引(未开启时为 null)
+     */
+    public static DeviceSnIndex getSnIndex() {
+        return snIndex;
+    }
+
     /**
      * 查询在线设备总数
      */
     public static Long getOnlineDeviceCount() {
-        int index = getBitsetIndex();
-        return RedisUtils.countCacheBitSet(BITSET_KEY_PREFIX + index);
+        int index = getCurrentBitsetIndex();
+        if (null != storage) {
+            return storage.countOnline(index);
+        }
+        if (COUNTER_ENABLED) {
+            return Math.max(RedisUtils.getAtomicValue(BITSET_COUNT_PREFIX + index), 0);
+        }
+        DeviceStatusSnapshot near = getSnapshot(index);
+        if (null != near) {
+            return near.count();
+        }
+        if (shardRouter.isEnabled()) {
+            //并行统计所有分片后求和
+            return countShardsAsync(index).toCompletableFuture().join();
+        }
+        return RedisUtils.countCacheBitSet(shardRouter.key(index, 0));
+    }
+
+    /**
+     * 异步设置设备在线状态，不阻塞调用线程
+     *
+     * @param deviceIdStr 设备ID
+     * @param status      在线状态
+     */
+    public static CompletionStage<Void> setDeviceStatusAsync(String deviceIdStr, Long status) {
+        if (StringUtils.isBlank(deviceIdStr) || null == status) return CompletableFuture.completedFuture(null);
+        long id = Long.parseLong(deviceIdStr);
+        boolean online = status == DeviceStatus.ONLINE.getCode();
+        if (null != offsetAllocator) {
+            return offsetAllocator.allocateAsync(id).thenCompose(offset -> setOffsetStatusAsync(offset, online));
+        }
+        return setOffsetStatusAsync(id, online);
+    }
+
+    /**
+     * 异步写入偏移量的在线状态，写入异常时清除去重标记
+     */
+    private static CompletionStage<Void> setOffsetStatusAsync(long deviceId, boolean online) {
+        if (!filterWrite(deviceId, online)) return CompletableFuture.completedFuture(null);
+        CompletionStage<Void> stage;
+        try {
+            stage = writeOffsetStatusAsync(deviceId, online);
+        } catch (RuntimeException e) {
+            unmarkFailedWrite(new long[]{deviceId}, online);
+            throw e;
+        }
+        return stage.whenComplete((r, e) -> {
+            if (null != e) unmarkFailedWrite(new long[]{deviceId}, online);
+        });
+    }
+
+    /**
+     * 异步写入已通过去重过滤的偏移量的在线状态
+     */
+    private static CompletionStage<Void> writeOffsetStatusAsync(long deviceId, boolean online) {
+        if (null != writeBuffer) {
+            writeBuffer.add(deviceId, online);
+            return CompletableFuture.completedFuture(null);
+        }
+        long[] offsets = new long[]{deviceId};
+        if (null != storage) {
+            return getCurrentBitsetIndexAsync().thenCompose(index -> storage.writeAsync(offsets, online, index));
+        }
+        if (useScript()) {
+            return evalSetStatusScriptAsync(deviceId, online).thenCompose(index -> {
+                if (index >= 0) return CompletableFuture.completedFuture(index);
+                //窗口配置已切换时切换到新一代后重试一次(读取配置可能阻塞，在异步线程池中执行)
+                return CompletableFuture.runAsync(DeviceStatusScheduledService::reloadBitsetConfig, asyncExecutor)
+                        .thenCompose(r -> evalSetStatusScriptAsync(deviceId, online));
+            }).thenApply(index -> {
+                if (index < 0) {
+                    throw new IllegalStateException("窗口配置切换后写入仍被拒绝, 代数:" + BITSET_GENERATION);
+                }
+                markDirty(offsets);
+                return null;
+            });
+        }
+        long shard = shardRouter.shard(deviceId);
+        long[] locals = new long[]{shardRouter.local(deviceId)};
+        int num = getWriteBitsetNum(deviceId, online);
+        return getCurrentBitsetIndexAsync().thenCompose(start -> CLOCK_INDEX_ENABLED
+                ? RedisUtils.setCacheBitSetsExpireAtAsync(getBitsetKeyExpireAt(start, shard, num), locals, online)
+                : COUNTER_ENABLED
+                ? RedisUtils.evalScriptAsync(SET_DEVICE_STATUS_COUNTED_SCRIPT, RScript.ReturnType.INTEGER,
+                getCountedKeys(start, shard, num), getCountedArgs(locals, online))
+                : RedisUtils.setCacheBitSetsAsync(getBitsetKeys(start, shard, num), locals, online, getWriteExpireSeconds()))
+                .thenApply(r -> {
+                    markDirty(offsets);
+                    return null;
+                });
+    }
+
+    /**
+     * 异步获取设备在线状态，不阻塞调用线程
+     *
+     * @param deviceIdStr 设备ID字符串
+     * @return 在线状态 (ONLINE 表示在线, OFFLINE 表示离线)
+     */
+    public static CompletionStage<Long> getDeviceStatusAsync(String deviceIdStr) {
+        long id = Long.parseLong(deviceIdStr);
+        if (null != offsetAllocator) {
+            return offsetAllocator.lookupAsync(id).thenCompose(offset -> offset < 0
+                    ? CompletableFuture.completedFuture(DeviceStatus.OFFLINE.getCode())
+                    : getOffsetStatusAsync(offset));
+        }
+        return getOffsetStatusAsync(id);
+    }
+
+    /**
+     * 异步读取偏移量的在线状态
+     */
+    private static CompletionStage<Long> getOffsetStatusAsync(long deviceId) {
+        return getCurrentBitsetIndexAsync()
+                .thenCompose(index -> {
+                    if (null != storage) {
+                        return storage.isOnlineAsync(deviceId, index);
+                    }
+                    DeviceStatusSnapshot near = getSnapshot(index);
+                    return null != near ? CompletableFuture.completedFuture(near.get(deviceId))
+                            : RedisUtils.getCacheBitSetAsync(shardRouter.keyOf(index, deviceId), shardRouter.local(deviceId));
+                })
+                .thenApply(online -> online ? DeviceStatus.ONLINE.getCode() : DeviceStatus.OFFLINE.getCode());
+    }
+
+    /**
+     * 根据设备sn，异步获取设备在线状态
+     * 设备信息缓存未命中时需要查询数据库，此时在独立线程池中执行，不占用Redis回调线程
+     *
+     * @param deviceSnStr 设备sn字符串
+     * @return 在线状态 (ONLINE 表示在线, OFFLINE 表示离线)
+     */
+    public static CompletionStage<Long> getDeviceStatusBySnAsync(String deviceSnStr) {
+        if (null != snIndex) {
+            long deviceId = snIndex.get(deviceSnStr);
+            if (deviceId >= 0) {
+                return getDeviceStatusAsync(String.valueOf(deviceId));
+            }
+            return CompletableFuture.supplyAsync(() -> getDeviceStatusBySn(deviceSnStr), asyncExecutor);
+        }
+        RMapCache<String, DeviceInfo> mapCache = getRedissonCollectionCache().getMapCache(RedisConstant.Biz.baseDeviceInfoMap);
+        return mapCache.getAsync(deviceSnStr).thenCompose(deviceInfo -> null != deviceInfo
+                ? getDeviceStatusAsync(deviceInfo.getId())
+                : CompletableFuture.supplyAsync(() -> getDeviceStatusBySn(deviceSnStr), asyncExecutor));
+    }
+
+    /**
+     * 异步查询在线设备总数，不阻塞调用线程
+     */
+    public static CompletionStage<Long> getOnlineDeviceCountAsync() {
+        return getCurrentBitsetIndexAsync().thenCompose(index -> {
+            if (null != storage) {
+                return storage.countOnlineAsync(index);
+            }
+            if (COUNTER_ENABLED) {
+                return RedisUtils.getAtomicValueAsync(BITSET_COUNT_PREFIX + index)
+                        .thenApply(count -> Math.max(count, 0));
+            }
+            DeviceStatusSnapshot near = getSnapshot(index);
+            return null != near ? CompletableFuture.completedFuture(near.count())
+                    : shardRouter.isEnabled() ? countShardsAsync(index)
+                    : RedisUtils.countCacheBitSetAsync(shardRouter.key(index, 0));
+        });
+    }
+
+    /**
+     * 并行统计指定index所有分片中值为 true 的位的数量并求和
+     */
+    private static CompletionStage<Long> countShardsAsync(int index) {
+        CompletableFuture<Long> total = CompletableFuture.completedFuture(0L);
+        for (String key : shardRouter.keys(index)) {
+            total = total.thenCombine(RedisUtils.countCacheBitSetAsync(key), Long::sum);
+        }
+        return total;
     }
 
     /**
@@ -192,15 +2173,32 @@ public class DeviceStatusScheduledService implements InitializingBean {
      * 清空所有Bitset+Lock+Index信息
      */
     public static boolean deleteAllDeviceStatusCache() {
+        if (null != storage) {
+            storage.clear();
+        }
         boolean allDeleted = false;
-        int start = getBitsetIndex();
-        int end = getBitsetIndex() + countBitsetNum();
+        int start = getCurrentBitsetIndex();
+        int end = start + countBitsetNum();
         for (int i = start; i <= end; i++) {
-            boolean bitsetDeleted = RedisUtils.deleteObject(BITSET_KEY_PREFIX + i);
+            if (shardRouter.isEnabled()) {
+                RedisUtils.deleteObject(shardRouter.keys(i));
+                continue;
+            }
+            boolean bitsetDeleted = RedisUtils.deleteObject(shardRouter.key(i, 0));
             allDeleted = allDeleted && bitsetDeleted;
         }
+        if (COUNTER_ENABLED) {
+            for (int i = start; i <= end; i++) {
+                RedisUtils.deleteObject(BITSET_COUNT_PREFIX + i);
+            }
+        }
         boolean lockDeleted = RedisUtils.deleteObject(BITSET_CHANGE_LOCK);
         boolean indexDeleted = RedisUtils.deleteObject(BITSET_INDEX);
+        RedisUtils.deleteObject(BITSET_SLIDE_TIME);
+        RedisUtils.deleteObject(BITSET_RING_RECLAIM);
+        if (shardRouter.isEnabled()) {
+            RedisUtils.deleteObject(BITSET_MAX_SHARD);
+        }
         return allDeleted && lockDeleted && indexDeleted;
     }
 
@@ -219,6 +2217,163 @@ public class DeviceStatusScheduledService implements InitializingBean {
         return index;
     }
 
+    /**
+     * 获取读写使用的bitset index
+     * 时钟模式下直接由当前时间计算
+     * 开启本地缓存时直接返回本地缓存的值，不访问Redis；未开启或尚未加载时从Redis读取
+     */
+    public static int getCurrentBitsetIndex() {
+        if (CLOCK_INDEX_ENABLED) {
+            return DeviceStatusClock.currentSlot(SLIDING_TIME);
+        }
+        int index = localBitsetIndex;
+        if (INDEX_CACHE_ENABLED && index > 0) {
+            return index;
+        }
+        return getBitsetIndex();
+    }
+
+    /**
+     * 异步获取读写使用的bitset index，时钟模式或本地缓存命中时直接返回
+     */
+    public static CompletionStage<Integer> getCurrentBitsetIndexAsync() {
+        if (CLOCK_INDEX_ENABLED || (INDEX_CACHE_ENABLED && localBitsetIndex > 0)) {
+            return CompletableFuture.completedFuture(getCurrentBitsetIndex());
+        }
+        return RedisUtils.<Integer>getCacheObjectAsync(BITSET_INDEX)
+                .thenApply(bitsetIndex -> bitsetIndex != null && bitsetIndex > 0 ? bitsetIndex : 1);
+    }
+
+    /**
+     * 从Redis重新加载本地缓存的bitset index
+     */
+    private static void refreshLocalBitsetIndex() {
+        try {
+            int index = getBitsetIndex();
+            if (localBitsetIndex != index) {
+                log.info("--->本地缓存bitset index校验修正: {} -> {}", localBitsetIndex, index);
+                localBitsetIndex = index;
+            }
+        } catch (Exception e) {
+            log.warn("--->本地缓存bitset index校验异常:", e);
+        }
+    }
+
+    /**
+     * 校准当前窗口的在线数量计数器：以全部分片 BITCOUNT 之和覆盖计数器，修正写入异常等原因造成的偏差
+     */
+    private static void verifyOnlineCounter() {
+        try {
+            int index = getCurrentBitsetIndex();
+            long before = Math.max(RedisUtils.getAtomicValue(BITSET_COUNT_PREFIX + index), 0);
+            long count = verifyOnlineCounter(index);
+            if (before != count) {
+                log.info("--->在线数量计数器校准: {} -> {}", before, count);
+            }
+        } catch (Exception e) {
+            log.warn("--->在线数量计数器校准异常:", e);
+        }
+    }
+
+    /**
+     * 以指定窗口全部分片 BITCOUNT 之和覆盖其计数器
+     *
+     * @return 在线数量
+     */
+    private static long verifyOnlineCounter(int index) {
+        List<Object> keys = new ArrayList<>();
+        keys.add(BITSET_COUNT_PREFIX + index);
+        keys.addAll(shardRouter.keys(index));
+        Long count = RedisUtils.evalScript(VERIFY_COUNTER_SCRIPT, RScript.ReturnType.INTEGER, keys);
+        return count;
+    }
+
+    /**
+     * 获取指定index可用的本地快照：快照index一致且未超过最大过期时间，否则返回 null(回退到Redis查询)
+     */
+    private static DeviceStatusSnapshot getSnapshot(int index) {
+        DeviceStatusSnapshot current = snapshot;
+        if (null == current || current.getIndex() != index
+                || System.currentTimeMillis() - current.getLoadedAt() > NEAR_CACHE_MAX_STALENESS * 1000L) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * 刷新本地快照：index变化或超过刷新间隔时，从Redis分段拉取当前窗口的bitset
+     */
+    private static void refreshSnapshot() {
+        try {
+            int index = getCurrentBitsetIndex();
+            DeviceStatusSnapshot current = snapshot;
+            if (null != current && current.getIndex() == index
+                    && System.currentTimeMillis() - current.getLoadedAt() < NEAR_CACHE_REFRESH_INTERVAL * 1000L) {
+                return;
+            }
+            snapshot = DeviceStatusSnapshot.load(index, shardRouter.keys(index), SHARD_BITS);
+        } catch (Exception e) {
+            log.warn("--->本地快照刷新异常:", e);
+        }
+    }
+
+    /**
+     * 发布本节点在上个间隔内写入修改的脏页：{index}:{页号},{页号}...
+     */
+    private static void publishDirtyPages() {
+        try {
+            long[] pages = pageTracker.drain();
+            if (pages.length == 0) return;
+            StringBuilder message = new StringBuilder().append(getCurrentBitsetIndex()).append(':');
+            for (int i = 0; i < pages.length; i++) {
+                message.append(i == 0 ? "" : ",").append(pages[i]);
+            }
+            RedisUtils.publish(DIRTY_PAGE_TOPIC, message.toString());
+        } catch (Exception e) {
+            log.warn("--->发布本地快照脏页异常:", e);
+        }
+    }
+
+    /**
+     * 收到脏页通知后，只拉取这些页更新本地快照(连续的页合并为一次 GETRANGE)
+     */
+    private static void applyDirtyPages(String message) {
+        try {
+            int split = message.indexOf(':');
+            int index = Integer.parseInt(message.substring(0, split));
+            DeviceStatusSnapshot current = snapshot;
+            if (null == current || current.getIndex() != index) return;
+            long[] pages = Arrays.stream(message.substring(split + 1).split(",")).mapToLong(Long::parseLong).toArray();
+            long pageBits = DeviceStatusPageTracker.PAGE_BYTES * 8L;
+            for (int i = 0; i < pages.length; ) {
+                int j = i;
+                while (j + 1 < pages.length && pages[j + 1] == pages[j] + 1) {
+                    j++;
+                }
+                long firstBit = pages[i] * pageBits;
+                long lastBit = (pages[j] + 1) * pageBits - 1;
+                //跨越多个分片时按分片分别拉取
+                for (long shard = shardRouter.shard(firstBit); shard <= shardRouter.shard(lastBit); shard++) {
+                    long fromBit = shardRouter.isEnabled() ? Math.max(firstBit, shard << SHARD_BITS) : firstBit;
+                    long toBit = shardRouter.isEnabled() ? Math.min(lastBit, ((shard + 1) << SHARD_BITS) - 1) : lastBit;
+                    byte[] bytes = RedisUtils.getCacheRange(shardRouter.key(index, shard),
+                            shardRouter.local(fromBit) >>> 3, shardRouter.local(toBit) >>> 3);
+                    current.update(fromBit >>> 3, bytes);
+                }
+                i = j + 1;
+            }
+        } catch (Exception e) {
+            log.warn("--->本地快照脏页更新异常:", e);
+        }
+    }
+
+    /**
+     * 获取当前的本地快照(未开启或尚未加载时为 null)，可用于读取快照时间、内存占用等信息
+     */
+    public static DeviceStatusSnapshot getSnapshot() {
+        return snapshot;
+    }
+
     /**
      * 设置bitset当前的index
      */
@@ -232,12 +2387,25 @@ public class DeviceStatusScheduledService implements InitializingBean {
      * 如果存在并且值大于0则设置为 当前值+1
      */
     public static void slideBitsetIndex() {
+        slideBitsetIndex(1);
+    }
+
+    /**
+     * 滑动增加bitset的index指定步数(错过调度后补充滑动)
+     *
+     * @param steps 步数
+     */
+    public static void slideBitsetIndex(int steps) {
         int index = 1;
         Integer bitsetIndex = getBitsetIndex();
         if (bitsetIndex != null && bitsetIndex > 0) {
             index = bitsetIndex;
         }
-        setBitsetIndex(index + 1);
+        setBitsetIndex(index + steps);
+        if (INDEX_CACHE_ENABLED) {
+            //通知所有节点刷新本地缓存的index
+            RedisUtils.publish(BITSET_INDEX_TOPIC, index + steps, newIndex -> localBitsetIndex = newIndex);
+        }
 //        log.info("--->滑动Bitset的Index索引到: {}", index + 1);
     }
 
@@ -248,7 +2416,7 @@ public class DeviceStatusScheduledService implements InitializingBean {
     public static void syncDeviceStatusToSql() {
 //        log.info("--->定时将已下线的设备信息 同步到mysql中");
         List<DeviceInfo> deviceInfos = new ArrayList<>();
-        RBitSet rBitSet = RedisUtils.getBitsetObject(BITSET_KEY_PREFIX + getBitsetIndex());
+        LongPredicate onlineChecker = getOnlineChecker();
         //获取2个心跳周期前的时间
         Calendar calendar = Calendar.getInstance();
         calendar.setTime(new Date());
@@ -261,7 +2429,7 @@ public class DeviceStatusScheduledService implements InitializingBean {
         deviceInfoBo.setLastLoginTime(resultDate);
         getDeviceInfoService().queryDeviceStatusList(deviceInfoBo).forEach(deviceInfo -> {
             //判断Bitset中如果设备在线状态为离线 -> 则更新数据库状态为离线
-            if (!rBitSet.get(Long.parseLong(deviceInfo.getId()))) {
+            if (!onlineChecker.test(Long.parseLong(deviceInfo.getId()))) {
                 deviceInfo.setDeviceStatus(DeviceStatus.OFFLINE.getCode());
                 deviceInfo.setOfflineTime(new Date());
                 deviceInfo.setUpdateBy(AutoRegisterConstant.UPDATE_BY_AUTO_REGISTER);
@@ -281,14 +2449,14 @@ public class DeviceStatusScheduledService implements InitializingBean {
     public static void syncAllDeviceStatusToSql() {
         log.info("--->将已下线的所有设备信息 同步到mysql中");
         List<DeviceInfo> deviceInfos = new ArrayList<>();
-        RBitSet rBitSet = RedisUtils.getBitsetObject(BITSET_KEY_PREFIX + getBitsetIndex());
+        LongPredicate onlineChecker = getOnlineChecker();
 
         //查询当前状态是online设备
         DeviceInfoBo deviceInfoBo = new DeviceInfoBo();
         deviceInfoBo.setDeviceStatus(DeviceStatus.ONLINE.getCode());
         getDeviceInfoService().queryDeviceStatusList(deviceInfoBo).forEach(deviceInfo -> {
             //判断Bitset中如果设备在线状态为离线 -> 则更新数据库状态为离线
-            if (!rBitSet.get(Long.parseLong(deviceInfo.getId()))) {
+            if (!onlineChecker.test(Long.parseLong(deviceInfo.getId()))) {
                 deviceInfo.setDeviceStatus(DeviceStatus.OFFLINE.getCode());
                 deviceInfo.setOfflineTime(new Date());
                 deviceInfo.setUpdateBy(AutoRegisterConstant.UPDATE_BY_AUTO_REGISTER);
@@ -301,6 +2469,39 @@ public class DeviceStatusScheduledService implements InitializingBean {
         }
     }
 
+    /**
+     * 获取按当前时间槽判断设备是否在线的方法，供同步任务逐个比对使用(参数为设备ID)
+     */
+    private static LongPredicate getOnlineChecker() {
+        LongPredicate offsetChecker = getOffsetOnlineChecker();
+        if (null == offsetAllocator) {
+            return offsetChecker;
+        }
+        return deviceId -> {
+            long offset = offsetAllocator.lookup(deviceId);
+            return offset >= 0 && offsetChecker.test(offset);
+        };
+    }
+
+    /**
+     * 获取按当前时间槽判断偏移量是否在线的方法
+     */
+    private static LongPredicate getOffsetOnlineChecker() {
+        int index = getCurrentBitsetIndex();
+        if (null != storage) {
+            return deviceId -> storage.isOnline(deviceId, index);
+        }
+        DeviceStatusSnapshot near = getSnapshot(index);
+        if (null != near) {
+            return near::get;
+        }
+        if (shardRouter.isEnabled()) {
+            return deviceId -> RedisUtils.getCacheBitSet(shardRouter.keyOf(index, deviceId), shardRouter.local(deviceId));
+        }
+        RBitSet rBitSet = RedisUtils.getBitsetObject(shardRouter.key(index, 0));
+        return rBitSet::get;
+    }
+
     /**
      * 给静态的deviceInfoService赋值
      */
@@ -0,0 +1,198 @@
+package com.jjys.cpeonlinestatus.service;
+
+import com.jjys.cpeonlinestatus.redis.utils.RedisUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 当前窗口bitset的本地快照
+ * 以 GETRANGE 分段拉取bitset的全部字节，保存为本地 long[]，在线状态查询与在线数量统计直接读取本地内存
+ * Redis bitset中偏移量 i 位于第 i/8 个字节的第 7-i%8 位(高位在前)，按大端序组装为 long 后
+ * 偏移量 i 位于 words[i/64] 的第 63-i%64 位
+ */
+public class DeviceStatusSnapshot {
+    //单次 GETRANGE 拉取的字节数
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private final int index;
+    //增量更新超出当前长度时整体替换为扩容后的数组
+    private volatile long[] words;
+    private volatile long count;
+    private final long loadedAt;
+
+    private DeviceStatusSnapshot(int index, long[] words, long loadedAt) {
+        this.index = index;
+        this.words = words;
+        this.loadedAt = loadedAt;
+        long bits = 0;
+        for (long word : words) {
+            bits += Long.bitCount(word);
+        }
+        this.count = bits;
+    }
+
+    /**
+     * 以拉取到的字节覆盖快照中对应的范围(脏页增量更新)，同时修正在线数量
+     *
+     * @param byteStart 起始字节位置
+     * @param bytes     字节数据
+     */
+    public synchronized void update(long byteStart, byte[] bytes) {
+        long[] current = words;
+        int from = (int) (byteStart >>> 3);
+        int to = (int) ((byteStart + bytes.length + 7) >>> 3);
+        if (to > current.length) {
+            current = Arrays.copyOf(current, to);
+        }
+        long delta = 0;
+        for (int w = from; w < to; w++) {
+            long word = 0;
+            for (int j = 0; j < 8; j++) {
+                int pos = (w << 3) + j - (int) byteStart;
+                long value = pos >= 0 && pos < bytes.length ? bytes[pos] & 0xFFL : (current[w] >>> ((7 - j) << 3)) & 0xFF;
+                word |= value << ((7 - j) << 3);
+            }
+            delta += Long.bitCount(word) - Long.bitCount(current[w]);
+            current[w] = word;
+        }
+        words = current;
+        count += delta;
+    }
+
+    /**
+     * 设置偏移量的值，同时修正在线数量
+     */
+    public synchronized void set(long offset, boolean value) {
+        if (offset < 0) return;
+        long[] current = words;
+        int word = (int) (offset >>> 6);
+        if (word >= current.length) {
+            if (!value) return;
+            current = Arrays.copyOf(current, Math.max(word + 1, current.length * 2));
+        }
+        long mask = 1L << (63 - (offset & 63));
+        boolean old = (current[word] & mask) != 0;
+        if (old != value) {
+            current[word] ^= mask;
+            count += value ? 1 : -1;
+        }
+        words = current;
+    }
+
+    /**
+     * 拉取指定index的bitset快照
+     *
+     * @param index     bitset index
+     * @param keys      该index的全部分片键(按分片号顺序)，不分片时只有一个键
+     * @param shardBits 分片位数，不分片时为 0
+     */
+    public static DeviceStatusSnapshot load(int index, List<String> keys, int shardBits) {
+        long loadedAt = System.currentTimeMillis();
+        long[] sizes = new long[keys.size()];
+        long totalBytes = 0;
+        for (int s = 0; s < keys.size(); s++) {
+            sizes[s] = RedisUtils.getCacheSize(keys.get(s));
+            if (sizes[s] > 0) {
+                totalBytes = Math.max(totalBytes, byteBase(s, shardBits) + sizes[s]);
+            }
+        }
+        long[] words = new long[(int) ((totalBytes + 7) >>> 3)];
+        for (int s = 0; s < keys.size(); s++) {
+            long base = byteBase(s, shardBits);
+            for (long start = 0; start < sizes[s]; start += CHUNK_BYTES) {
+                byte[] bytes = RedisUtils.getCacheRange(keys.get(s), start, Math.min(start + CHUNK_BYTES, sizes[s]) - 1);
+                merge(words, base + start, bytes);
+            }
+        }
+        return new DeviceStatusSnapshot(index, words, loadedAt);
+    }
+
+    /**
+     * 以bitset的原始字节创建快照
+     *
+     * @param index bitset index
+     * @param bytes 从第 0 个字节开始的bitset字节
+     */
+    static DeviceStatusSnapshot of(int index, byte[] bytes) {
+        long[] words = new long[(bytes.length + 7) >>> 3];
+        merge(words, 0, bytes);
+        return new DeviceStatusSnapshot(index, words, System.currentTimeMillis());
+    }
+
+    /**
+     * 将从 byteStart 开始的bitset字节按大端序合并到 words 中
+     */
+    private static void merge(long[] words, long byteStart, byte[] bytes) {
+        for (int j = 0; j < bytes.length; j++) {
+            long pos = byteStart + j;
+            words[(int) (pos >>> 3)] |= (bytes[j] & 0xFFL) << ((7 - (pos & 7)) << 3);
+        }
+    }
+
+    /**
+     * 分片在合并后字节数组中的起始位置
+     */
+    private static long byteBase(int shard, int shardBits) {
+        return shardBits > 0 ? ((long) shard << shardBits) >>> 3 : 0;
+    }
+
+    /**
+     * 偏移量是否在线
+     */
+    public boolean get(long offset) {
+        long[] words = this.words;
+        int word = (int) (offset >>> 6);
+        return offset >= 0 && word < words.length && (words[word] & (1L << (63 - (offset & 63)))) != 0;
+    }
+
+    /**
+     * 全部值为 true 的偏移量(升序)
+     */
+    public long[] toOffsets() {
+        long[] words = this.words;
+        long[] offsets = new long[(int) count];
+        int n = 0;
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            while (word != 0) {
+                int bit = Long.numberOfLeadingZeros(word);
+                if (n == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, n * 2 + 1);
+                }
+                offsets[n++] = ((long) w << 6) + bit;
+                word &= ~(1L << (63 - bit));
+            }
+        }
+        return n == offsets.length ? offsets : Arrays.copyOf(offsets, n);
+    }
+
+    /**
+     * 在线数量
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * 快照对应的bitset index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * 快照拉取的开始时间(快照数据不早于该时间)
+     */
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * 快照占用的内存，单位：字节
+     */
+    public long getMemoryBytes() {
+        return (long) words.length << 3;
+    }
+
+}
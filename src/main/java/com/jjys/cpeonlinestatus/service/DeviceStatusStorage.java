@@ -0,0 +1,87 @@
+package com.jjys.cpeonlinestatus.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 设备在线状态存储策略
+ * 默认的多窗口bitset存储由 DeviceStatusScheduledService 直接实现，
+ * 通过 device_status.storage 配置可切换为其他实现，对外接口保持不变
+ */
+public interface DeviceStatusStorage {
+
+    /**
+     * 批量写入设备在线状态
+     *
+     * @param deviceIds 设备ID数组
+     * @param online    是否在线
+     * @param slot      当前时间槽(bitset index)
+     */
+    void write(long[] deviceIds, boolean online, int slot);
+
+    /**
+     * 查询设备是否在线
+     *
+     * @param deviceId 设备ID
+     * @param slot     当前时间槽(bitset index)
+     */
+    boolean isOnline(long deviceId, int slot);
+
+    /**
+     * 批量查询设备是否在线，默认逐个查询，实现类可覆盖为批量实现
+     *
+     * @param deviceIds 设备ID数组
+     * @param slot      当前时间槽(bitset index)
+     * @return 与 deviceIds 顺序一致的在线状态
+     */
+    default boolean[] isOnline(long[] deviceIds, int slot) {
+        boolean[] online = new boolean[deviceIds.length];
+        for (int i = 0; i < deviceIds.length; i++) {
+            online[i] = isOnline(deviceIds[i], slot);
+        }
+        return online;
+    }
+
+    /**
+     * 查询在线设备总数
+     *
+     * @param slot 当前时间槽(bitset index)
+     */
+    long countOnline(int slot);
+
+    /**
+     * 滑动到新的时间槽后由滑动任务调用(每个时间槽只由一个节点调用)，用于清理过期数据、预先统计在线数量等，默认不做任何操作
+     *
+     * @param slot 新的时间槽(bitset index)
+     */
+    default void slide(int slot) {
+    }
+
+    /**
+     * 清空全部在线状态数据
+     */
+    void clear();
+
+    /**
+     * 异步批量写入设备在线状态，默认在调用线程同步执行，实现类可覆盖为非阻塞实现
+     */
+    default CompletionStage<Void> writeAsync(long[] deviceIds, boolean online, int slot) {
+        write(deviceIds, online, slot);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * 异步查询设备是否在线，默认在调用线程同步执行，实现类可覆盖为非阻塞实现
+     */
+    default CompletionStage<Boolean> isOnlineAsync(long deviceId, int slot) {
+        return CompletableFuture.completedFuture(isOnline(deviceId, slot));
+    }
+
+    /**
+     * 异步查询在线设备总数，默认在调用线程同步执行，实现类可覆盖为非阻塞实现
+     */
+    default CompletionStage<Long> countOnlineAsync(int slot) {
+        return CompletableFuture.completedFuture(countOnline(slot));
+    }
+
+}
@@ -0,0 +1,318 @@
+package com.jjys.cpeonlinestatus.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * 设备心跳写入缓冲区
+ * 将短时间内大量到达的心跳合并，按 时间间隔 或 数量阈值 批量写入Redis
+ * 写入端为无锁的多生产者单消费者 long 环形缓冲区(不产生装箱对象)，由单独的刷新线程按到达顺序统一消费
+ */
+@Slf4j
+public class DeviceStatusWriteBuffer {
+    //环形缓冲区的最小容量
+    private static final int MIN_CAPACITY = 4096;
+    //缓冲区已满时写入线程的等待时间，单位：纳秒
+    private static final long FULL_WAIT_NANOS = 100_000L;
+
+    //环形缓冲区：0 表示空槽(已申请但尚未写入)，在线编码为 deviceId+1，离线编码为 -(deviceId+1)
+    private final AtomicLongArray ring;
+    private final int mask;
+    //写入端已申请的序号(不包含)
+    private final AtomicLong tail = new AtomicLong();
+    //刷新线程已消费的序号(不包含)，只由刷新线程修改
+    private volatile long head;
+    //是否已提交了一次数量阈值触发的刷新
+    private final AtomicBoolean flushSubmitted = new AtomicBoolean();
+    //单次刷新的最大数量
+    private final int maxSize;
+    //刷新时间间隔，单位：毫秒
+    private final long flushIntervalMillis;
+    //批量写入：设备ID数组 + 是否在线
+    private final BiConsumer<long[], Boolean> writer;
+    private final ScheduledExecutorService flusher;
+    private volatile boolean running;
+
+    //统计：刷新次数、刷新的设备总数、最近/最大批量大小、最近/最大刷新耗时、写入异常丢弃的设备数量
+    private final LongAdder flushCount = new LongAdder();
+    private final LongAdder flushedTotal = new LongAdder();
+    private volatile int lastBatchSize;
+    private final AtomicInteger maxBatchSize = new AtomicInteger();
+    private volatile long lastFlushNanos;
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final LongAdder droppedTotal = new LongAdder();
+
+    public DeviceStatusWriteBuffer(int maxSize, long flushIntervalMillis, BiConsumer<long[], Boolean> writer) {
+        this.maxSize = Math.max(maxSize, 1);
+        this.flushIntervalMillis = Math.max(flushIntervalMillis, 1);
+        this.writer = writer;
+        //容量为 2 的幂，至少可容纳 4 次刷新的数量，刷新线程短暂阻塞时写入端不必等待
+        int capacity = Integer.highestOneBit(Math.max(this.maxSize * 4, MIN_CAPACITY) - 1) << 1;
+        this.ring = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "device-status-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 启动定时刷新
+     */
+    public void start() {
+        running = true;
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时刷新，并将缓冲区内剩余的数据全部写入
+     * 最终刷新与写入端并发时，写入端在写入环形缓冲区后会再次检查 running，已停止则自行刷新
+     */
+    public void shutdown() {
+        running = false;
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(flushIntervalMillis * 10, TimeUnit.MILLISECONDS)) {
+                flusher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * 写入一次心跳
+     * 缓冲区已满时触发刷新并等待空位，保证同一设备的状态按到达顺序写入
+     *
+     * @param deviceId 设备ID
+     * @param online   是否在线
+     */
+    public void add(long deviceId, boolean online) {
+        long value = online ? deviceId + 1 : -deviceId - 1;
+        while (true) {
+            if (!running) {
+                //已停止则直接写入，避免数据滞留在缓冲区
+                writer.accept(new long[]{deviceId}, online);
+                return;
+            }
+            long sequence = tail.get();
+            if (sequence - head >= ring.length()) {
+                submitFlush();
+                LockSupport.parkNanos(FULL_WAIT_NANOS);
+                continue;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                ring.set((int) (sequence & mask), value);
+                if (!running) {
+                    //申请序号后缓冲区已停止：shutdown 的最终刷新可能已执行，由写入线程自行刷新，避免数据滞留在缓冲区
+                    flush();
+                    return;
+                }
+                if (sequence + 1 - head >= maxSize) {
+                    submitFlush();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 提交一次数量阈值触发的刷新(已提交且尚未执行时不重复提交)
+     */
+    private void submitFlush() {
+        if (flushSubmitted.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flush);
+            } catch (Exception e) {
+                flushSubmitted.set(false);
+            }
+        }
+    }
+
+    /**
+     * 刷新缓冲区：按到达顺序取出数据，以 maxSize 为单位分批写入
+     * 同一批内同一设备只保留最后一次的状态，在线与离线分别写入，其中一组写入异常不影响另一组
+     */
+    public synchronized void flush() {
+        flushSubmitted.set(false);
+        long[] batch = new long[maxSize];
+        while (true) {
+            long start = head;
+            int limit = (int) Math.min(tail.get() - start, maxSize);
+            int batchSize = 0;
+            while (batchSize < limit) {
+                int slot = (int) ((start + batchSize) & mask);
+                long value = ring.get(slot);
+                if (value == 0) {
+                    //写入端已申请序号但尚未写入，留到下一次刷新
+                    break;
+                }
+                batch[batchSize++] = value;
+                ring.lazySet(slot, 0);
+            }
+            if (batchSize == 0) {
+                break;
+            }
+            head = start + batchSize;
+            long begin = System.nanoTime();
+            write(batch, batchSize);
+            record(batchSize, System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 从后向前遍历，每个设备只保留最后一次的状态，按在线/离线分组写入
+     */
+    private void write(long[] batch, int batchSize) {
+        long[] online = new long[batchSize];
+        long[] offline = new long[batchSize];
+        int onlineNum = 0;
+        int offlineNum = 0;
+        LongSet seen = new LongSet(batchSize);
+        for (int i = batchSize - 1; i >= 0; i--) {
+            long value = batch[i];
+            long deviceId = value > 0 ? value - 1 : -value - 1;
+            if (!seen.add(deviceId)) {
+                continue;
+            }
+            if (value > 0) {
+                online[onlineNum++] = deviceId;
+            } else {
+                offline[offlineNum++] = deviceId;
+            }
+        }
+        if (onlineNum > 0) {
+            write(Arrays.copyOf(online, onlineNum), true);
+        }
+        if (offlineNum > 0) {
+            write(Arrays.copyOf(offline, offlineNum), false);
+        }
+    }
+
+    private void write(long[] deviceIds, boolean online) {
+        try {
+            writer.accept(deviceIds, online);
+        } catch (Exception e) {
+            droppedTotal.add(deviceIds.length);
+            log.warn("--->批量写入设备{}状态异常, 丢弃数量:{}", online ? "在线" : "离线", deviceIds.length, e);
+        }
+    }
+
+    private void record(int batchSize, long flushNanos) {
+        flushCount.increment();
+        flushedTotal.add(batchSize);
+        lastBatchSize = batchSize;
+        lastFlushNanos = flushNanos;
+        maxBatchSize.accumulateAndGet(batchSize, Math::max);
+        maxFlushNanos.accumulateAndGet(flushNanos, Math::max);
+    }
+
+    /**
+     * 缓冲区内待刷新的数量
+     */
+    public int getPendingSize() {
+        return (int) (tail.get() - head);
+    }
+
+    /**
+     * 累计刷新次数
+     */
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+
+    /**
+     * 累计刷新的设备数量
+     */
+    public long getFlushedTotal() {
+        return flushedTotal.sum();
+    }
+
+    /**
+     * 平均批量大小
+     */
+    public double getAvgBatchSize() {
+        long count = flushCount.sum();
+        return count == 0 ? 0 : (double) flushedTotal.sum() / count;
+    }
+
+    /**
+     * 最近一次批量大小
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * 最大批量大小
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    /**
+     * 最近一次刷新耗时，单位：毫秒
+     */
+    public double getLastFlushMillis() {
+        return lastFlushNanos / 1_000_000.0;
+    }
+
+    /**
+     * 最大刷新耗时，单位：毫秒
+     */
+    public double getMaxFlushMillis() {
+        return maxFlushNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * 写入异常丢弃的设备数量
+     */
+    public long getDroppedTotal() {
+        return droppedTotal.sum();
+    }
+
+    /**
+     * 刷新时去重使用的 long 集合(开放寻址，设备ID不小于 0，以 -1 表示空槽)
+     */
+    private static class LongSet {
+        private final long[] keys;
+        private final int mask;
+
+        private LongSet(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(expectedSize * 2, 16) - 1) << 1;
+            this.keys = new long[capacity];
+            this.mask = capacity - 1;
+            Arrays.fill(keys, -1L);
+        }
+
+        /**
+         * @return true=新加入；false=已存在
+         */
+        private boolean add(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            int i = (int) (h ^ (h >>> 32)) & mask;
+            while (keys[i] != -1L) {
+                if (keys[i] == key) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            return true;
+        }
+    }
+
+}
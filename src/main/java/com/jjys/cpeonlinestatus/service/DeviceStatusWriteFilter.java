@@ -0,0 +1,132 @@
+package com.jjys.cpeonlinestatus.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 心跳写入去重过滤器
+ * 同一时间槽内本节点已写入过在线状态的设备，再次上报心跳时写入的bitset完全相同，可直接跳过
+ * 使用按时间槽区分的位图记录已写入的设备，时间槽变化时整体替换为新的位图
+ * 只对 ID 小于 capacity 的设备去重，超出范围的设备始终写入
+ */
+public class DeviceStatusWriteFilter {
+    private final long capacity;
+    private final AtomicReference<Generation> current;
+
+    //统计：在线心跳总数、被去重跳过的数量
+    private final LongAdder total = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+
+    public DeviceStatusWriteFilter(long capacity) {
+        this.capacity = capacity;
+        this.current = new AtomicReference<>(new Generation(Integer.MIN_VALUE, 0));
+    }
+
+    /**
+     * 标记设备在当前时间槽已写入在线状态
+     *
+     * @param deviceId 设备ID
+     * @param slot     当前时间槽(bitset index)
+     * @return true=需要写入；false=本时间槽内已写入过，可跳过
+     */
+    public boolean tryMark(long deviceId, int slot) {
+        total.increment();
+        if (deviceId < 0 || deviceId >= capacity) {
+            return true;
+        }
+        Generation generation = current.get();
+        while (generation.slot != slot) {
+            if (slot < generation.slot) {
+                //index 已经滑动到更新的时间槽，旧时间槽的写入不做去重
+                return true;
+            }
+            Generation next = new Generation(slot, capacity);
+            if (current.compareAndSet(generation, next)) {
+                generation = next;
+            } else {
+                generation = current.get();
+            }
+        }
+        if (generation.mark(deviceId)) {
+            return true;
+        }
+        suppressed.increment();
+        return false;
+    }
+
+    /**
+     * 取消设备的写入标记(设备离线时调用，保证之后的在线心跳能够写入)
+     *
+     * @param deviceId 设备ID
+     */
+    public void unmark(long deviceId) {
+        if (deviceId >= 0 && deviceId < capacity) {
+            current.get().unmark(deviceId);
+        }
+    }
+
+    /**
+     * 在线心跳总数
+     */
+    public long getTotalCount() {
+        return total.sum();
+    }
+
+    /**
+     * 被去重跳过的数量
+     */
+    public long getSuppressedCount() {
+        return suppressed.sum();
+    }
+
+    /**
+     * 去重比例(被跳过的数量 / 在线心跳总数)
+     */
+    public double getSuppressionRatio() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) suppressed.sum() / count;
+    }
+
+    /**
+     * 某一时间槽的已写入位图
+     */
+    private static class Generation {
+        private final int slot;
+        private final AtomicLongArray words;
+
+        private Generation(int slot, long capacity) {
+            this.slot = slot;
+            this.words = new AtomicLongArray((int) ((capacity + 63) >>> 6));
+        }
+
+        /**
+         * @return true=首次标记；false=已被标记过
+         */
+        private boolean mark(long deviceId) {
+            int index = (int) (deviceId >>> 6);
+            long bit = 1L << (deviceId & 63);
+            long word;
+            do {
+                word = words.get(index);
+                if ((word & bit) != 0) {
+                    return false;
+                }
+            } while (!words.compareAndSet(index, word, word | bit));
+            return true;
+        }
+
+        private void unmark(long deviceId) {
+            int index = (int) (deviceId >>> 6);
+            long bit = 1L << (deviceId & 63);
+            long word;
+            do {
+                word = words.get(index);
+                if ((word & bit) == 0) {
+                    return;
+                }
+            } while (!words.compareAndSet(index, word, word & ~bit));
+        }
+    }
+
+}
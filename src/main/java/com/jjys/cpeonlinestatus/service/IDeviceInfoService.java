@@ -4,6 +4,7 @@ import com.jjys.cpeonlinestatus.bean.DeviceInfo;
 import com.jjys.cpeonlinestatus.bean.bo.DeviceInfoBo;
 import com.jjys.cpeonlinestatus.bean.vo.DeviceInfoVo;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -20,6 +21,21 @@ public interface IDeviceInfoService {
      */
     List<DeviceInfo> queryDeviceStatusList(DeviceInfoBo bo);
 
+    /**
+     * 查询全部设备(id+sn)列表
+     */
+    List<DeviceInfo> queryDeviceSnList();
+
+    /**
+     * 查询全部设备(id+厂商+代理商+模型+软件版本)列表
+     */
+    List<DeviceInfo> queryDeviceAttributeList();
+
+    /**
+     * 以修改时间为条件，查询已删除设备(id+sn)列表
+     */
+    List<DeviceInfo> queryDeletedDeviceList(Date updateTime);
+
     /**
      * 批量修改设备在线状态
      */
@@ -0,0 +1,145 @@
+package com.jjys.cpeonlinestatus.service;
+
+import com.jjys.cpeonlinestatus.redis.utils.RedisUtils;
+import org.redisson.api.RScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 最后心跳时间槽存储
+ * 每个设备在一个Redis字符串中占用一个 u16 字段，保存最后一次心跳所在的时间槽(取模编码)
+ * 在线判断: 当前时间槽 - 最后心跳时间槽 < 窗口bitset数量
+ * 与多窗口bitset相比，每次心跳只需一次写入，内存占用为 2 字节/设备
+ * 每个时间槽由滑动任务分段扫描一次：统计在线数量并将超出窗口的字段清零，
+ * 清零后字段不会在时间槽编码回绕(约 WRAP 个时间槽)后被误判为在线，查询在线数量直接读取滑动任务最近一次的统计结果
+ */
+public class LastSeenDeviceStatusStorage implements DeviceStatusStorage {
+    //字段位数
+    private static final int FIELD_BITS = 16;
+    //时间槽取模的周期，编码值 1~WRAP，0 表示从未上线或已离线
+    private static final int WRAP = (1 << FIELD_BITS) - 1;
+    //扫描时单次脚本处理的字节数(必须为字段字节数的整数倍)，避免单次脚本长时间占用Redis主线程
+    private static final int SCAN_CHUNK_BYTES = 1 << 16;
+    /**
+     * 分段扫描脚本：统计一段字段中在线的数量，并将已超出窗口的字段清零(脚本内读取与清零原子执行，不会清除并发写入的心跳)
+     * KEYS[1]: 存储键  ARGV[1]: 起始字节  ARGV[2]: 结束字节(包含)  ARGV[3]: 当前时间槽编码  ARGV[4]: 窗口bitset数量  ARGV[5]: WRAP
+     */
+    private static final String SWEEP_SCRIPT =
+            "local data = redis.call('getrange', KEYS[1], ARGV[1], ARGV[2]) " +
+            "local start = tonumber(ARGV[1]) " +
+            "local code = tonumber(ARGV[3]) " +
+            "local window = tonumber(ARGV[4]) " +
+            "local wrap = tonumber(ARGV[5]) " +
+            "local count = 0 " +
+            "for i = 1, #data - 1, 2 do " +
+            "local value = string.byte(data, i) * 256 + string.byte(data, i + 1) " +
+            "if value ~= 0 then " +
+            "if (code - value) % wrap < window then count = count + 1 " +
+            "else redis.call('setrange', KEYS[1], start + i - 1, '\\0\\0') end " +
+            "end " +
+            "end " +
+            "return count";
+
+    private final String key;
+    //本时间槽的在线数量统计结果：{时间槽}:{在线数量}
+    private final String countKey;
+
+    public LastSeenDeviceStatusStorage(String key) {
+        this.key = key;
+        this.countKey = key + "_count";
+    }
+
+    /**
+     * 时间槽编码为 1~WRAP
+     * 编码每 WRAP 个时间槽回绕一次，超出窗口的字段由每个时间槽的扫描清零，不会在回绕后被误判为在线
+     */
+    private static long encode(int slot) {
+        return Math.floorMod(slot, WRAP) + 1;
+    }
+
+    private static boolean isOnline(long value, long slotCode, int window) {
+        return value != 0 && Math.floorMod(slotCode - value, WRAP) < window;
+    }
+
+    @Override
+    public void write(long[] deviceIds, boolean online, int slot) {
+        RedisUtils.setCacheBitField(key, FIELD_BITS, deviceIds, online ? encode(slot) : 0);
+    }
+
+    @Override
+    public boolean isOnline(long deviceId, int slot) {
+        return isOnline(RedisUtils.getCacheBitField(key, FIELD_BITS, deviceId), encode(slot),
+                DeviceStatusScheduledService.countBitsetNum());
+    }
+
+    @Override
+    public boolean[] isOnline(long[] deviceIds, int slot) {
+        long slotCode = encode(slot);
+        int window = DeviceStatusScheduledService.countBitsetNum();
+        long[] values = RedisUtils.getCacheBitFields(key, FIELD_BITS, deviceIds);
+        boolean[] online = new boolean[deviceIds.length];
+        for (int i = 0; i < values.length; i++) {
+            online[i] = isOnline(values[i], slotCode, window);
+        }
+        return online;
+    }
+
+    @Override
+    public CompletionStage<Void> writeAsync(long[] deviceIds, boolean online, int slot) {
+        return RedisUtils.setCacheBitFieldAsync(key, FIELD_BITS, deviceIds, online ? encode(slot) : 0).thenApply(r -> null);
+    }
+
+    @Override
+    public CompletionStage<Boolean> isOnlineAsync(long deviceId, int slot) {
+        int window = DeviceStatusScheduledService.countBitsetNum();
+        return RedisUtils.getCacheBitFieldAsync(key, FIELD_BITS, deviceId)
+                .thenApply(value -> isOnline(value, encode(slot), window));
+    }
+
+    /**
+     * 读取滑动任务最近一次保存的统计结果，查询时不扫描(扫描会清零字段，只由持有滑动锁的滑动任务执行)
+     * 滑动任务尚未统计本时间槽时返回上一个时间槽的结果，尚无统计结果时返回 0
+     */
+    @Override
+    public long countOnline(int slot) {
+        String counted = RedisUtils.getCacheObject(countKey);
+        if (null == counted) {
+            return 0;
+        }
+        return Long.parseLong(counted.substring(counted.indexOf(':') + 1));
+    }
+
+    /**
+     * 滑动到新的时间槽后扫描一次全部字段(由滑动任务在滑动锁内调用)
+     */
+    @Override
+    public void slide(int slot) {
+        sweep(slot);
+    }
+
+    /**
+     * 分段扫描全部字段：统计在线数量并清零超出窗口的字段，统计结果保存为本时间槽的在线数量
+     */
+    private long sweep(int slot) {
+        long slotCode = encode(slot);
+        int window = DeviceStatusScheduledService.countBitsetNum();
+        long size = RedisUtils.getCacheSize(key);
+        long count = 0;
+        for (long start = 0; start < size; start += SCAN_CHUNK_BYTES) {
+            Long online = RedisUtils.evalScript(SWEEP_SCRIPT, RScript.ReturnType.INTEGER, List.of(key),
+                    start, start + SCAN_CHUNK_BYTES - 1, slotCode, window, WRAP);
+            count += online;
+        }
+        RedisUtils.setCacheObject(countKey, slot + ":" + count,
+                Duration.ofSeconds(DeviceStatusScheduledService.getWindowExpireSeconds()));
+        return count;
+    }
+
+    @Override
+    public void clear() {
+        RedisUtils.deleteObject(List.of(key, countKey));
+    }
+
+}
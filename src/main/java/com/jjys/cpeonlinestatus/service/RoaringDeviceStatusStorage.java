@@ -0,0 +1,235 @@
+package com.jjys.cpeonlinestatus.service;
+
+import com.jjys.cpeonlinestatus.redis.utils.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 压缩位图存储
+ * 每个时间槽按设备ID范围分段，每段保存为一个客户端序列化的 RoaringBitmap 字符串：
+ * 本时间槽的心跳 {prefix}{slot}:{{chunk}}，窗口内之前时间槽心跳的合并结果 {prefix}{slot}m:{{chunk}}
+ * 同一段在各时间槽的键使用相同的hash tag，集群模式下位于同一个slot，可在一个脚本内同时更新
+ * 适用于ID空间稀疏(大量删除、按租户分段)的场景，没有设备的ID范围不占用内存
+ * 上线心跳每段只读取并比较设置本时间槽的一个键，窗口内之前的时间槽由滑动任务在滑动时合并一次；
+ * 离线写入较少，同时从窗口内全部时间槽与合并结果中移除，保证立即离线
+ * 已写入过的分段号记录在集合 {prefix}chunks 中，统计在线数量与合并时不需要扫描键空间
+ */
+@Slf4j
+public class RoaringDeviceStatusStorage implements DeviceStatusStorage {
+    //每段包含的设备ID数量为 2^CHUNK_BITS
+    private static final int CHUNK_BITS = 20;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+    //比较并设置失败时的最大重试次数
+    private static final int MAX_RETRY = 16;
+
+    private final String keyPrefix;
+    //已写入过的分段号集合
+    private final String chunksKey;
+    //本节点已确认记录到分段号集合中的分段号
+    private final Set<Long> knownChunks = ConcurrentHashMap.newKeySet();
+
+    public RoaringDeviceStatusStorage(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+        this.chunksKey = keyPrefix + "chunks";
+    }
+
+    private String chunkKey(int slot, long chunk) {
+        return keyPrefix + slot + ":{" + chunk + "}";
+    }
+
+    private String mergedKey(int slot, long chunk) {
+        return keyPrefix + slot + "m:{" + chunk + "}";
+    }
+
+    /**
+     * 按分段分组后写入：上线只更新本时间槽；离线同时更新窗口内全部时间槽与本时间槽、下一时间槽的合并结果
+     * (下一时间槽的合并与离线写入并发时，合并的比较并设置失败后重新读取)
+     */
+    @Override
+    public void write(long[] deviceIds, boolean online, int slot) {
+        long[] sorted = deviceIds.clone();
+        Arrays.sort(sorted);
+        Duration ttl = Duration.ofSeconds(DeviceStatusScheduledService.getWindowExpireSeconds());
+        int num = DeviceStatusScheduledService.countBitsetNum();
+        int from = 0;
+        while (from < sorted.length) {
+            long chunk = sorted[from] >>> CHUNK_BITS;
+            int to = from;
+            RoaringBitmap delta = new RoaringBitmap();
+            while (to < sorted.length && sorted[to] >>> CHUNK_BITS == chunk) {
+                delta.add((int) (sorted[to] & CHUNK_MASK));
+                to++;
+            }
+            if (online && !knownChunks.contains(chunk)) {
+                //Redis确认记录后才加入本地集合，记录失败时下一次写入重新记录
+                RedisUtils.addCacheSet(chunksKey, chunk);
+                knownChunks.add(chunk);
+            }
+            List<String> keys = new ArrayList<>();
+            keys.add(chunkKey(slot, chunk));
+            if (!online) {
+                for (int i = slot - num + 1; i < slot; i++) {
+                    keys.add(chunkKey(i, chunk));
+                }
+                keys.add(mergedKey(slot, chunk));
+                keys.add(mergedKey(slot + 1, chunk));
+            }
+            update(keys, delta, online, ttl);
+            from = to;
+        }
+    }
+
+    /**
+     * 读取各键的旧值，修改后比较并设置，只对值已被其他写入修改的键重试
+     * 超过最大重试次数时抛出异常，由调用方感知写入失败
+     */
+    private void update(List<String> keys, RoaringBitmap delta, boolean online, Duration ttl) {
+        for (int retry = 0; retry < MAX_RETRY; retry++) {
+            List<byte[]> olds = RedisUtils.getCacheBytes(keys);
+            List<byte[]> updates = new ArrayList<>(keys.size());
+            for (byte[] old : olds) {
+                RoaringBitmap bitmap = deserialize(old);
+                if (online) {
+                    bitmap.or(delta);
+                } else {
+                    bitmap.andNot(delta);
+                }
+                bitmap.runOptimize();
+                updates.add(serialize(bitmap));
+            }
+            List<Integer> failed = RedisUtils.compareAndSetCacheBytes(keys, olds, updates, ttl);
+            if (failed.isEmpty()) {
+                return;
+            }
+            List<String> conflicted = new ArrayList<>(failed.size());
+            for (int i : failed) {
+                conflicted.add(keys.get(i));
+            }
+            keys = conflicted;
+        }
+        throw new IllegalStateException("压缩位图写入冲突重试次数超限, key:" + keys);
+    }
+
+    @Override
+    public boolean isOnline(long deviceId, int slot) {
+        long chunk = deviceId >>> CHUNK_BITS;
+        List<byte[]> values = RedisUtils.getCacheBytes(List.of(chunkKey(slot, chunk), mergedKey(slot, chunk)));
+        return window(slot, chunk, values.get(0), values.get(1)).contains((int) (deviceId & CHUNK_MASK));
+    }
+
+    /**
+     * 按分段号集合管道读取当前时间槽的全部分段与合并结果，求并集后求和
+     */
+    @Override
+    public long countOnline(int slot) {
+        List<Long> chunks = loadChunks();
+        List<String> keys = new ArrayList<>(chunks.size() * 2);
+        for (long chunk : chunks) {
+            keys.add(chunkKey(slot, chunk));
+            keys.add(mergedKey(slot, chunk));
+        }
+        List<byte[]> values = RedisUtils.getCacheBytes(keys);
+        long count = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            count += window(slot, chunks.get(i), values.get(i * 2), values.get(i * 2 + 1)).getLongCardinality();
+        }
+        return count;
+    }
+
+    /**
+     * 滑动到新的时间槽后，将窗口内之前时间槽的心跳合并为新时间槽的合并结果(每段读取 窗口bitset数量-1 个键，写入一个键)
+     */
+    @Override
+    public void slide(int slot) {
+        Duration ttl = Duration.ofSeconds(DeviceStatusScheduledService.getWindowExpireSeconds());
+        for (long chunk : loadChunks()) {
+            List<String> key = List.of(mergedKey(slot, chunk));
+            for (int retry = 0; ; retry++) {
+                byte[] old = RedisUtils.getCacheBytes(key.get(0));
+                RoaringBitmap merged = merge(slot, chunk);
+                merged.runOptimize();
+                if (RedisUtils.compareAndSetCacheBytes(key, Collections.singletonList(old),
+                        List.of(serialize(merged)), ttl).isEmpty()) {
+                    break;
+                }
+                if (retry >= MAX_RETRY) {
+                    throw new IllegalStateException("压缩位图合并冲突重试次数超限, key:" + key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 本时间槽的心跳与合并结果的并集；滑动任务尚未合并时直接合并窗口内之前的时间槽
+     */
+    private RoaringBitmap window(int slot, long chunk, byte[] current, byte[] merged) {
+        RoaringBitmap bitmap = deserialize(current);
+        bitmap.or(null != merged ? deserialize(merged) : merge(slot, chunk));
+        return bitmap;
+    }
+
+    /**
+     * 管道读取窗口内本时间槽之前的全部时间槽并求并集
+     */
+    private RoaringBitmap merge(int slot, long chunk) {
+        int num = DeviceStatusScheduledService.countBitsetNum();
+        List<String> keys = new ArrayList<>(num);
+        for (int i = slot - num + 1; i < slot; i++) {
+            keys.add(chunkKey(i, chunk));
+        }
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (byte[] bytes : RedisUtils.getCacheBytes(keys)) {
+            if (null != bytes) {
+                bitmap.or(deserialize(bytes));
+            }
+        }
+        return bitmap;
+    }
+
+    private List<Long> loadChunks() {
+        //数值经JSON编解码后可能为 Integer，统一按 Number 读取
+        Set<Number> chunks = RedisUtils.getCacheSet(chunksKey);
+        List<Long> list = new ArrayList<>(chunks.size());
+        for (Number chunk : chunks) {
+            list.add(chunk.longValue());
+        }
+        return list;
+    }
+
+    @Override
+    public void clear() {
+        RedisUtils.deleteKeys(keyPrefix + "*");
+        knownChunks.clear();
+    }
+
+    private static RoaringBitmap deserialize(byte[] bytes) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        if (null == bytes || bytes.length == 0) {
+            return bitmap;
+        }
+        try {
+            bitmap.deserialize(ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bitmap;
+    }
+
+    private static byte[] serialize(RoaringBitmap bitmap) {
+        ByteBuffer buffer = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+        bitmap.serialize(buffer);
+        return buffer.array();
+    }
+
+}
@@ -10,6 +10,7 @@ import com.jjys.cpeonlinestatus.service.IDeviceInfoService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -45,6 +46,32 @@ public class DeviceInfoServiceImpl implements IDeviceInfoService {
         return baseMapper.queryDeviceStatusList(bo);
     }
 
+    /**
+     * 查询全部设备(id+sn)列表
+     */
+    @Override
+    public List<DeviceInfo> queryDeviceSnList() {
+        return baseMapper.queryDeviceSnList();
+    }
+
+    /**
+     * 查询全部设备(id+厂商+代理商+模型+软件版本)列表
+     */
+    @Override
+    public List<DeviceInfo> queryDeviceAttributeList() {
+        return baseMapper.queryDeviceAttributeList();
+    }
+
+    /**
+     * 以修改时间为条件，查询已删除设备(id+sn)列表
+     *
+     * @param updateTime
+     */
+    @Override
+    public List<DeviceInfo> queryDeletedDeviceList(Date updateTime) {
+        return baseMapper.queryDeletedDeviceList(updateTime);
+    }
+
     /**
      * 批量修改设备在线状态
      *
@@ -0,0 +1,84 @@
+package com.jjys.cpeonlinestatus.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分片键、分片内偏移量与固定环键的计算，不访问Redis
+ */
+class BitsetShardRouterTests {
+    private static final String PREFIX = "device_status:test:";
+
+    @Test
+    void disabledKeepsOffsetAndKey() {
+        BitsetShardRouter router = new BitsetShardRouter(PREFIX, 0, PREFIX + "max_shard");
+        assertFalse(router.isEnabled());
+        assertEquals(0, router.shard(123_456_789L));
+        assertEquals(123_456_789L, router.local(123_456_789L));
+        assertEquals(PREFIX + "7", router.keyOf(7, 123_456_789L));
+    }
+
+    @Test
+    void shardAndLocalSplitOffset() {
+        BitsetShardRouter router = new BitsetShardRouter(PREFIX, 20, PREFIX + "max_shard");
+        assertTrue(router.isEnabled());
+        long size = 1L << 20;
+        assertEquals(0, router.shard(size - 1));
+        assertEquals(size - 1, router.local(size - 1));
+        assertEquals(1, router.shard(size));
+        assertEquals(0, router.local(size));
+        long offset = 5 * size + 42;
+        assertEquals(5, router.shard(offset));
+        assertEquals(42, router.local(offset));
+        assertEquals(offset, (router.shard(offset) << 20) | router.local(offset));
+    }
+
+    @Test
+    void shardedKeyContainsIndexAndShard() {
+        BitsetShardRouter router = new BitsetShardRouter(PREFIX, 20, PREFIX + "max_shard");
+        assertEquals(PREFIX + "3:0", router.key(3, 0));
+        assertEquals(PREFIX + "3:5", router.keyOf(3, (5L << 20) + 1));
+    }
+
+    @Test
+    void ringKeyWrapsByIndex() {
+        BitsetShardRouter router = new BitsetShardRouter(PREFIX, 0, PREFIX + "max_shard", 4);
+        assertEquals(PREFIX + "r1", router.key(1, 0));
+        assertEquals(PREFIX + "r0", router.key(4, 0));
+        assertEquals(PREFIX + "r1", router.key(5, 0));
+        assertEquals(PREFIX + "r3", router.key(-1, 0));
+        BitsetShardRouter sharded = new BitsetShardRouter(PREFIX, 20, PREFIX + "max_shard", 4);
+        assertEquals(PREFIX + "r2:3", sharded.keyOf(6, (3L << 20) + 7));
+    }
+
+    @Test
+    void ringSlidOutKeyIsNotWrittenUntilNextSlide() {
+        //固定环的键数量为窗口内bitset数量+1：滑动一步后，滑出窗口的键不在新的写入范围内
+        int num = 3;
+        BitsetShardRouter router = new BitsetShardRouter(PREFIX, 0, PREFIX + "max_shard", num + 1);
+        for (int index = 1; index < 10; index++) {
+            String slidOut = router.key(index, 0);
+            for (int i = index + 1; i < index + 1 + num; i++) {
+                assertNotEquals(slidOut, router.key(i, 0));
+            }
+            assertEquals(slidOut, router.key(index + 1 + num, 0));
+        }
+    }
+
+    @Test
+    void disabledGroupReturnsOriginalOffsets() {
+        BitsetShardRouter router = new BitsetShardRouter(PREFIX, 0, PREFIX + "max_shard");
+        long[] offsets = {9, 3, 7};
+        Map<Long, long[]> groups = router.group(offsets);
+        assertEquals(1, groups.size());
+        assertArrayEquals(offsets, groups.get(0L));
+    }
+
+}
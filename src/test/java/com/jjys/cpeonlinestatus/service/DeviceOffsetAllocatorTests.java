@@ -0,0 +1,123 @@
+package com.jjys.cpeonlinestatus.service;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import io.netty.buffer.ByteBuf;
+import org.junit.jupiter.api.Test;
+import org.redisson.client.handler.State;
+import org.redisson.codec.TypedJsonJacksonCodec;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+/**
+ * 偏移量本地缓存(开放寻址哈希表)的查找、扩容与向后移动删除，回收通知的编解码，不访问Redis
+ */
+class DeviceOffsetAllocatorTests {
+
+    @Test
+    void removeKeepsProbeChain() {
+        DeviceOffsetAllocator.LongIntMap map = new DeviceOffsetAllocator.LongIntMap();
+        //散列到同一槽位的键依次占据同一探测链，删除链中间的键后其余键仍可查找
+        long[] collided = collide(4);
+        for (int i = 0; i < collided.length; i++) {
+            map.put(collided[i], i);
+        }
+        map.remove(collided[0]);
+        assertEquals(-1, map.get(collided[0]));
+        for (int i = 1; i < collided.length; i++) {
+            assertEquals(i, map.get(collided[i]));
+        }
+        map.remove(collided[2]);
+        assertEquals(1, map.get(collided[1]));
+        assertEquals(-1, map.get(collided[2]));
+        assertEquals(3, map.get(collided[3]));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void randomOperationsMatchHashMap() {
+        DeviceOffsetAllocator.LongIntMap map = new DeviceOffsetAllocator.LongIntMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int n = 0; n < 200_000; n++) {
+            long key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, n);
+                expected.put(key, n);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 5000; key++) {
+            assertEquals(expected.getOrDefault(key, -1), map.get(key));
+        }
+    }
+
+    @Test
+    void negativeKeyIgnored() {
+        DeviceOffsetAllocator.LongIntMap map = new DeviceOffsetAllocator.LongIntMap();
+        map.put(-1, 1);
+        assertEquals(-1, map.get(-1));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void releaseNoticeSurvivesCodec() throws IOException {
+        DeviceOffsetAllocator allocator = new DeviceOffsetAllocator("device_status:test:");
+        allocator.cache.put(42L, 7);
+        allocator.cache.put(43L, 8);
+        //小于 2^31 的 long 经JSON编解码后为 Integer，按 Long 订阅的监听器会将其过滤
+        assertInstanceOf(Integer.class, roundTrip(42L));
+        Object message = roundTrip(String.valueOf(42L));
+        assertInstanceOf(String.class, message);
+        allocator.onReleased((String) message);
+        assertEquals(-1, allocator.cache.get(42L));
+        assertEquals(8, allocator.cache.get(43L));
+    }
+
+    /**
+     * 以与 RedisConfiguration 相同的JSON编解码器编码后再解码
+     */
+    private static Object roundTrip(Object message) throws IOException {
+        ObjectMapper om = new ObjectMapper();
+        om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        om.activateDefaultTyping(LaissezFaireSubTypeValidator.instance, ObjectMapper.DefaultTyping.NON_FINAL);
+        TypedJsonJacksonCodec codec = new TypedJsonJacksonCodec(Object.class, om);
+        ByteBuf buf = codec.getValueEncoder().encode(message);
+        try {
+            return codec.getValueDecoder().decode(buf, new State());
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * 找出容量 1024 时散列到同一槽位的键
+     */
+    private static long[] collide(int count) {
+        long[] keys = new long[count];
+        int home = -1;
+        for (long key = 0, n = 0; n < count; key++) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            int slot = (int) (h ^ (h >>> 32)) & 1023;
+            if (home < 0) {
+                home = slot;
+            }
+            if (slot == home) {
+                keys[(int) n++] = key;
+            }
+        }
+        return keys;
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.jjys.cpeonlinestatus.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 堆外sn索引的删除标记、重建哈希表与全量替换，不访问Redis
+ */
+class DeviceSnIndexTests {
+
+    @Test
+    void removeThenPutReusesDeletedSlot() {
+        DeviceSnIndex index = new DeviceSnIndex();
+        index.put("SN0001", 1);
+        index.put("SN0002", 2);
+        index.remove("SN0001");
+        assertEquals(-1, index.get("SN0001"));
+        assertEquals(2, index.get("SN0002"));
+        index.put("SN0001", 3);
+        assertEquals(3, index.get("SN0001"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void rehashKeepsLiveEntriesAndDropsDeleted() {
+        DeviceSnIndex index = new DeviceSnIndex();
+        Map<String, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        //大量删除后再插入，删除标记占满槽位时触发同容量或扩容的重建
+        for (int n = 0; n < 100_000; n++) {
+            String sn = "SN" + random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                index.remove(sn);
+                expected.remove(sn);
+            } else {
+                index.put(sn, n);
+                expected.put(sn, (long) n);
+            }
+        }
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < 3000; i++) {
+            String sn = "SN" + i;
+            assertEquals(expected.getOrDefault(sn, -1L), index.get(sn));
+        }
+    }
+
+    @Test
+    void replaceAllReplaysChangesDuringLoad() {
+        DeviceSnIndex index = new DeviceSnIndex();
+        index.put("SN0001", 1);
+        index.replaceAll(() -> {
+            Map<String, Long> snIds = Map.of("SN0001", 1L, "SN0002", 2L, "SN0003", 3L);
+            //加载期间收到的变更：数据库快照中不包含这些变更
+            index.put("SN0004", 4);
+            index.remove("SN0002");
+            index.put("SN0003", 30);
+            return snIds;
+        });
+        assertEquals(1, index.get("SN0001"));
+        assertEquals(-1, index.get("SN0002"));
+        assertEquals(30, index.get("SN0003"));
+        assertEquals(4, index.get("SN0004"));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    void failedLoadKeepsOriginalContent() {
+        DeviceSnIndex index = new DeviceSnIndex();
+        index.put("SN0001", 1);
+        assertThrows(IllegalStateException.class, () -> index.replaceAll(() -> {
+            throw new IllegalStateException("load failed");
+        }));
+        assertEquals(1, index.get("SN0001"));
+        index.put("SN0002", 2);
+        index.replaceAll(() -> Map.of("SN0003", 3L));
+        //加载失败后不再记录变更，之后的加载不会重放失败前的变更
+        assertEquals(-1, index.get("SN0002"));
+        assertEquals(3, index.get("SN0003"));
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.jjys.cpeonlinestatus.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 窗口数量、重新分桶等不依赖Redis的计算
+ */
+class DeviceStatusScheduledServiceTests {
+
+    @Test
+    void heartbeatEqualToSlidingTimeWritesGraceWindow() {
+        assertEquals(2, DeviceStatusScheduledService.countBitsetNum(60, 60));
+        assertEquals(3, DeviceStatusScheduledService.countBitsetNum(61, 60));
+        assertEquals(2, DeviceStatusScheduledService.countBitsetNum(30, 60));
+        assertEquals(31, DeviceStatusScheduledService.countBitsetNum(1800, 60));
+    }
+
+    @Test
+    void periodicHeartbeatNeverReadsOffline() {
+        int slidingTime = 60;
+        for (int heartbeat : new int[]{30, 59, 60, 61, 90, 120, 1800}) {
+            int num = DeviceStatusScheduledService.countBitsetNum(heartbeat, slidingTime);
+            //心跳在任意相位到达：t 时刻写入 index(t) ~ index(t)+num-1，u 时刻读取 index(u)
+            for (int phase = 0; phase < slidingTime; phase += 7) {
+                long lastWritten = -1;
+                for (int u = phase; u < phase + heartbeat * 5; u++) {
+                    if ((u - phase) % heartbeat == 0) {
+                        lastWritten = u / slidingTime + num - 1;
+                    }
+                    assertTrue(u / slidingTime <= lastWritten,
+                            "心跳间隔:" + heartbeat + ", 相位:" + phase + ", 时刻:" + u + " 被判定离线");
+                }
+            }
+        }
+    }
+
+    @Test
+    void catchUpRollsUpLastSlidOutWindow() {
+        //单步滑动汇总刚滑出的窗口
+        assertEquals(10, DeviceStatusScheduledService.getRollupIndex(10, 1));
+        int num = DeviceStatusScheduledService.countBitsetNum(1800, 60);
+        for (int steps = 1; steps <= num; steps++) {
+            //滑动脚本返回滑动后的index，不使用脚本时按步数滑动，两条路径汇总同一个窗口
+            int newIndex = 10 + steps;
+            int rollup = DeviceStatusScheduledService.getRollupIndex(10, newIndex - 10);
+            assertEquals(newIndex - 1, rollup);
+            //汇总的窗口已滑出(不再写入)，且不早于滑动前的index
+            assertTrue(rollup < newIndex && rollup >= 10, "补充滑动" + steps + "步时汇总的窗口:" + rollup);
+        }
+    }
+
+    @Test
+    void rebucketStartsKeepOnlineDevicesWithinOneOldSlide() {
+        int[][] configs = {{60, 30}, {60, 60}, {60, 90}, {60, 300}, {300, 60}, {45, 100}};
+        for (int[] config : configs) {
+            int oldSliding = config[0];
+            int newSliding = config[1];
+            int oldNum = DeviceStatusScheduledService.countBitsetNum(1800, oldSliding);
+            int newNum = DeviceStatusScheduledService.countBitsetNum(1800, newSliding);
+            int[] starts = DeviceStatusScheduledService.getRebucketStarts(oldNum, oldSliding, newNum, newSliding);
+            assertEquals(0, starts[0]);
+            for (int j = 0; j < newNum; j++) {
+                assertTrue(j == 0 || starts[j] >= starts[j - 1], "新窗口合并的起始位置应单调不减");
+                long readAt = (long) j * newSliding;
+                //最后写入旧窗口 k 的设备在旧配置下保持在线到 (k+1)*旧滑动时间
+                for (int k = 0; k < oldNum; k++) {
+                    boolean merged = k >= starts[j];
+                    if ((k + 1L) * oldSliding > readAt) {
+                        assertTrue(merged, "旧窗口" + k + "在" + readAt + "s时仍在线, 未合并到新窗口" + j);
+                    } else {
+                        assertTrue(!merged || (k + 2L) * oldSliding > readAt, "旧窗口" + k + "超过一个旧滑动时间仍保留在新窗口" + j);
+                    }
+                }
+            }
+        }
+    }
+
+}
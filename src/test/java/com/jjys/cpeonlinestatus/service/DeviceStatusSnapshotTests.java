@@ -0,0 +1,68 @@
+package com.jjys.cpeonlinestatus.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 快照字节与 long[] 的位序：与Redis SETBIT 一致，偏移量 i 位于第 i/8 个字节的第 7-i%8 位
+ */
+class DeviceStatusSnapshotTests {
+
+    @Test
+    void offsetsFollowRedisBitOrder() {
+        byte[] bytes = new byte[10];
+        //SETBIT 0、15、64、79 后的字节
+        bytes[0] = (byte) 0x80;
+        bytes[1] = (byte) 0x01;
+        bytes[8] = (byte) 0x80;
+        bytes[9] = (byte) 0x01;
+        DeviceStatusSnapshot snapshot = DeviceStatusSnapshot.of(1, bytes);
+        assertTrue(snapshot.get(0));
+        assertFalse(snapshot.get(7));
+        assertTrue(snapshot.get(15));
+        assertTrue(snapshot.get(64));
+        assertTrue(snapshot.get(79));
+        assertFalse(snapshot.get(80));
+        assertEquals(4, snapshot.count());
+        assertArrayEquals(new long[]{0, 15, 64, 79}, snapshot.toOffsets());
+    }
+
+    @Test
+    void updateOverwritesByteRangeAndCount() {
+        byte[] bytes = new byte[16];
+        bytes[0] = (byte) 0xFF;
+        bytes[9] = (byte) 0x40;
+        DeviceStatusSnapshot snapshot = DeviceStatusSnapshot.of(1, bytes);
+        assertEquals(9, snapshot.count());
+        //覆盖跨越两个 long 的字节 [7, 9]，字节 0 与 9 之外的数据不变
+        snapshot.update(7, new byte[]{(byte) 0x01, (byte) 0x80, 0});
+        assertTrue(snapshot.get(0));
+        assertTrue(snapshot.get(63));
+        assertTrue(snapshot.get(64));
+        assertFalse(snapshot.get(73));
+        assertEquals(10, snapshot.count());
+        //超出当前长度时扩容
+        snapshot.update(16, new byte[]{(byte) 0x80});
+        assertTrue(snapshot.get(128));
+        assertEquals(11, snapshot.count());
+    }
+
+    @Test
+    void setGrowsAndKeepsCount() {
+        DeviceStatusSnapshot snapshot = DeviceStatusSnapshot.of(1, new byte[0]);
+        snapshot.set(3, true);
+        snapshot.set(200, true);
+        snapshot.set(200, true);
+        snapshot.set(500, false);
+        assertEquals(2, snapshot.count());
+        assertArrayEquals(new long[]{3, 200}, snapshot.toOffsets());
+        snapshot.set(200, false);
+        assertEquals(1, snapshot.count());
+        assertFalse(snapshot.get(200));
+    }
+
+}
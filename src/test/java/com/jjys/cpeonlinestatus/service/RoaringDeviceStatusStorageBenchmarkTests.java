@@ -0,0 +1,76 @@
+package com.jjys.cpeonlinestatus.service;
+
+import com.jjys.cpeonlinestatus.redis.utils.RedisUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.redisson.api.RScript;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 压缩位图存储与默认bitset存储的内存占用、心跳写入吞吐量对比
+ * 需要可用的Redis，默认不执行，通过 -Dbenchmark=true 运行：mvn test -Dtest=RoaringDeviceStatusStorageBenchmarkTests -Dbenchmark=true
+ * 设备数量与ID空间可通过 -Dbenchmark.devices、-Dbenchmark.id_space 调整，设备ID在ID空间内随机分布以模拟稀疏的主键
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@SpringBootTest(properties = {"cpe.config.id=benchmark", "device_status.sliding_time=60"})
+class RoaringDeviceStatusStorageBenchmarkTests {
+    private static final String PREFIX = "device_status:benchmark:";
+    private static final int BATCH_SIZE = 1000;
+
+    @Test
+    void compareWithBitset() {
+        int devices = Integer.getInteger("benchmark.devices", 1_000_000);
+        long idSpace = Long.getLong("benchmark.id_space", 100_000_000L);
+        long[] deviceIds = new Random(42).longs(devices, 0, idSpace).sorted().distinct().toArray();
+        int num = DeviceStatusScheduledService.countBitsetNum();
+        int slot = 1;
+
+        List<String> bitsetKeys = new ArrayList<>(num);
+        for (int i = slot; i < slot + num; i++) {
+            bitsetKeys.add(PREFIX + "bitset_" + i);
+        }
+        RoaringDeviceStatusStorage roaring = new RoaringDeviceStatusStorage(PREFIX + "roaring_");
+        try {
+            long begin = System.nanoTime();
+            for (int from = 0; from < deviceIds.length; from += BATCH_SIZE) {
+                long[] batch = Arrays.copyOfRange(deviceIds, from, Math.min(from + BATCH_SIZE, deviceIds.length));
+                RedisUtils.setCacheBitSets(bitsetKeys, batch, true);
+            }
+            long bitsetNanos = System.nanoTime() - begin;
+            long bitsetBytes = memoryUsage(bitsetKeys);
+
+            begin = System.nanoTime();
+            for (int from = 0; from < deviceIds.length; from += BATCH_SIZE) {
+                roaring.write(Arrays.copyOfRange(deviceIds, from, Math.min(from + BATCH_SIZE, deviceIds.length)), true, slot);
+            }
+            long roaringNanos = System.nanoTime() - begin;
+            List<String> roaringKeys = new ArrayList<>(RedisUtils.keys(PREFIX + "roaring_*"));
+            long roaringBytes = memoryUsage(roaringKeys);
+
+            System.out.printf("设备数量:%d, ID空间:%d, 窗口bitset数量:%d%n", deviceIds.length, idSpace, num);
+            System.out.printf("bitset : 内存 %dKB, 写入 %dms, %.0f 心跳/s%n", bitsetBytes >> 10, bitsetNanos / 1_000_000,
+                    deviceIds.length * 1e9 / bitsetNanos);
+            System.out.printf("roaring: 内存 %dKB, 写入 %dms, %.0f 心跳/s, 在线数量 %d%n", roaringBytes >> 10, roaringNanos / 1_000_000,
+                    deviceIds.length * 1e9 / roaringNanos, roaring.countOnline(slot));
+        } finally {
+            RedisUtils.deleteObject(bitsetKeys);
+            roaring.clear();
+        }
+    }
+
+    private static long memoryUsage(List<String> keys) {
+        long bytes = 0;
+        for (String key : keys) {
+            Long usage = RedisUtils.evalScript("return redis.call('memory', 'usage', KEYS[1])",
+                    RScript.ReturnType.INTEGER, List.of(key));
+            bytes += null != usage ? usage : 0;
+        }
+        return bytes;
+    }
+
+}